@@ -0,0 +1,336 @@
+package io.horizontalsystems.hdwalletkit;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A BIP 37 Bloom filter.  Filter bits are indexed as in BIP 37 (little-endian bit order within
+ * each byte), and element i of the filter hash functions is MurmurHash3 (x86, 32-bit) seeded with
+ * i * 0xFBA4C795 + nTweak, so a filter built here can be sent to a peer in a filterload message.
+ *
+ * The bulk methods operate on runs of equal-length elements stored back to back in one array,
+ * such as the public keys and hashes of an HDPublicKeyBatch.
+ */
+public class BloomFilter {
+
+    /**
+     * Maximum filter size in bytes (BIP 37)
+     */
+    public static final int MAX_FILTER_SIZE = 36000;
+
+    /**
+     * Maximum number of hash functions (BIP 37)
+     */
+    public static final int MAX_HASH_FUNCS = 50;
+
+    /**
+     * Filter update flags (BIP 37)
+     */
+    public static final int UPDATE_NONE = 0;
+    public static final int UPDATE_ALL = 1;
+    public static final int UPDATE_P2PUBKEY_ONLY = 2;
+
+    /**
+     * Seed multiplier for the hash functions (BIP 37)
+     */
+    private static final int SEED_MULTIPLIER = 0xFBA4C795;
+
+    /**
+     * ln(2) and ln(2)^2
+     */
+    private static final double LN2 = 0.6931471805599453;
+    private static final double LN2_SQUARED = LN2 * LN2;
+
+    private final byte[] filter;
+    private final int hashFuncs;
+    private final int tweak;
+    private final int flags;
+
+    /**
+     * Create a filter sized for the expected number of elements and false-positive rate.
+     * The size is computed as in BIP 37 and capped at MAX_FILTER_SIZE and MAX_HASH_FUNCS.
+     *
+     * @param elements          Expected number of elements
+     * @param falsePositiveRate Desired false-positive rate (0 < rate < 1)
+     * @param tweak             Random value added to the hash function seeds
+     * @param flags             Update flags
+     */
+    public BloomFilter(int elements, double falsePositiveRate, int tweak, int flags) {
+        if (elements <= 0)
+            throw new IllegalArgumentException("Number of elements must be positive");
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1))
+            throw new IllegalArgumentException("False-positive rate must be between 0 and 1");
+        //
+        // From BIP 37:
+        //   nFilterBytes = min((-1 / ln(2)^2 * N * ln(P)) / 8, 36000)
+        //   nHashFuncs = min(nFilterBytes * 8 / N * ln(2), 50)
+        //
+        double bits = Math.min(-1 / LN2_SQUARED * elements * Math.log(falsePositiveRate), MAX_FILTER_SIZE * 8);
+        int size = Math.max((int) bits / 8, 1);
+        this.filter = new byte[size];
+        this.hashFuncs = Math.max(Math.min((int) (size * 8 / (double) elements * LN2), MAX_HASH_FUNCS), 1);
+        this.tweak = tweak;
+        this.flags = flags;
+    }
+
+    /**
+     * Create a filter with the UPDATE_NONE flag
+     *
+     * @param elements          Expected number of elements
+     * @param falsePositiveRate Desired false-positive rate (0 < rate < 1)
+     * @param tweak             Random value added to the hash function seeds
+     */
+    public BloomFilter(int elements, double falsePositiveRate, int tweak) {
+        this(elements, falsePositiveRate, tweak, UPDATE_NONE);
+    }
+
+    /**
+     * Create a filter from its BIP 37 parameters
+     *
+     * @param filter    Filter bits (copied)
+     * @param hashFuncs Number of hash functions
+     * @param tweak     Random value added to the hash function seeds
+     * @param flags     Update flags
+     */
+    public BloomFilter(byte[] filter, int hashFuncs, int tweak, int flags) {
+        if (filter.length == 0 || filter.length > MAX_FILTER_SIZE)
+            throw new IllegalArgumentException("Filter size is out of range");
+        if (hashFuncs <= 0 || hashFuncs > MAX_HASH_FUNCS)
+            throw new IllegalArgumentException("Number of hash functions is out of range");
+        this.filter = filter.clone();
+        this.hashFuncs = hashFuncs;
+        this.tweak = tweak;
+        this.flags = flags;
+    }
+
+    /**
+     * Return a copy of the filter bits
+     *
+     * @return Filter bits
+     */
+    public byte[] getFilter() {
+        return filter.clone();
+    }
+
+    /**
+     * Return the number of hash functions
+     *
+     * @return Number of hash functions
+     */
+    public int getHashFuncs() {
+        return hashFuncs;
+    }
+
+    /**
+     * Return the tweak
+     *
+     * @return Tweak
+     */
+    public int getTweak() {
+        return tweak;
+    }
+
+    /**
+     * Return the update flags
+     *
+     * @return Update flags
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Estimate the false-positive rate once the given number of elements has been inserted:
+     * (1 - e^(-k * n / m))^k
+     *
+     * @param elements Number of inserted elements
+     * @return Estimated false-positive rate
+     */
+    public double getFalsePositiveRate(int elements) {
+        return Math.pow(1 - Math.exp(-hashFuncs * (double) elements / (filter.length * 8)), hashFuncs);
+    }
+
+    /**
+     * Insert an element
+     *
+     * @param data Element
+     */
+    public void insert(byte[] data) {
+        insert(data, 0, data.length);
+    }
+
+    /**
+     * Insert an element
+     *
+     * @param data   Array containing the element
+     * @param offset Starting offset of the element
+     * @param length Length of the element
+     */
+    public void insert(byte[] data, int offset, int length) {
+        checkRange(data, offset, length);
+        for (int i = 0; i < hashFuncs; i++)
+            Utils.setBitLE(filter, bitIndex(i, data, offset, length));
+    }
+
+    /**
+     * Insert elements of equal length stored back to back
+     *
+     * @param data          Array containing the elements
+     * @param offset        Starting offset of the first element
+     * @param count         Number of elements
+     * @param elementLength Length of each element
+     */
+    public void insertAll(byte[] data, int offset, int count, int elementLength) {
+        checkRange(data, offset, count, elementLength);
+        for (int n = 0; n < count; n++) {
+            int elementOffset = offset + n * elementLength;
+            for (int i = 0; i < hashFuncs; i++)
+                Utils.setBitLE(filter, bitIndex(i, data, elementOffset, elementLength));
+        }
+    }
+
+    /**
+     * Check if the filter matches an element
+     *
+     * @param data Element
+     * @return TRUE if the element may have been inserted, FALSE if it was not
+     */
+    public boolean contains(byte[] data) {
+        return contains(data, 0, data.length);
+    }
+
+    /**
+     * Check if the filter matches an element
+     *
+     * @param data   Array containing the element
+     * @param offset Starting offset of the element
+     * @param length Length of the element
+     * @return TRUE if the element may have been inserted, FALSE if it was not
+     */
+    public boolean contains(byte[] data, int offset, int length) {
+        checkRange(data, offset, length);
+        for (int i = 0; i < hashFuncs; i++) {
+            if (!Utils.checkBitLE(filter, bitIndex(i, data, offset, length)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check elements of equal length stored back to back
+     *
+     * @param data          Array containing the elements
+     * @param offset        Starting offset of the first element
+     * @param count         Number of elements
+     * @param elementLength Length of each element
+     * @param matches       Receives TRUE at position n if element n may have been inserted
+     * @return Number of matching elements
+     */
+    public int containsAll(byte[] data, int offset, int count, int elementLength, boolean[] matches) {
+        checkRange(data, offset, count, elementLength);
+        if (matches.length < count)
+            throw new IllegalArgumentException("Match array is too small");
+        int matched = 0;
+        for (int n = 0; n < count; n++) {
+            boolean match = contains(data, offset + n * elementLength, elementLength);
+            matches[n] = match;
+            if (match)
+                matched++;
+        }
+        return matched;
+    }
+
+    /**
+     * Serialize the filter as the payload of a BIP 37 filterload message:
+     * filter bits (var_bytes), nHashFuncs (uint32), nTweak (uint32), nFlags (uint8)
+     *
+     * @return Serialized filter
+     */
+    public byte[] serialize() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(filter.length + 18);
+        byte[] length = Utils.encode(filter.length);
+        out.write(length, 0, length.length);
+        out.write(filter, 0, filter.length);
+        byte[] fields = new byte[9];
+        Utils.uint32ToByteArrayLE(hashFuncs, fields, 0);
+        Utils.uint32ToByteArrayLE(tweak, fields, 4);
+        fields[8] = (byte) flags;
+        out.write(fields, 0, fields.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Return the filter bit selected by a hash function
+     *
+     * @param hashNum Hash function number
+     * @param data    Array containing the element
+     * @param offset  Starting offset of the element
+     * @param length  Length of the element
+     * @return Bit index
+     */
+    private int bitIndex(int hashNum, byte[] data, int offset, int length) {
+        int hash = murmurHash3(hashNum * SEED_MULTIPLIER + tweak, data, offset, length);
+        return (int) ((hash & 0xFFFFFFFFL) % (filter.length * 8));
+    }
+
+    /**
+     * MurmurHash3 (x86, 32-bit)
+     *
+     * @param seed   Hash seed
+     * @param data   Array containing the data
+     * @param offset Starting offset of the data
+     * @param length Length of the data
+     * @return Hash
+     */
+    @SuppressWarnings("fallthrough")
+    static int murmurHash3(int seed, byte[] data, int offset, int length) {
+        final int c1 = 0xcc9e2d51;
+        final int c2 = 0x1b873593;
+        int h1 = seed;
+        int blockEnd = offset + (length & ~3);
+        for (int i = offset; i < blockEnd; i += 4) {
+            int k1 = (data[i] & 0xff) | (data[i + 1] & 0xff) << 8 |
+                    (data[i + 2] & 0xff) << 16 | (data[i + 3] & 0xff) << 24;
+            k1 *= c1;
+            k1 = Integer.rotateLeft(k1, 15);
+            k1 *= c2;
+            h1 ^= k1;
+            h1 = Integer.rotateLeft(h1, 13);
+            h1 = h1 * 5 + 0xe6546b64;
+        }
+        int k1 = 0;
+        switch (length & 3) {
+            case 3:
+                k1 ^= (data[blockEnd + 2] & 0xff) << 16;
+                // fall through
+            case 2:
+                k1 ^= (data[blockEnd + 1] & 0xff) << 8;
+                // fall through
+            case 1:
+                k1 ^= (data[blockEnd] & 0xff);
+                k1 *= c1;
+                k1 = Integer.rotateLeft(k1, 15);
+                k1 *= c2;
+                h1 ^= k1;
+        }
+        h1 ^= length;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+
+    private static void checkRange(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > data.length - length)
+            throw new IllegalArgumentException("Element range is outside the array");
+    }
+
+    private static void checkRange(byte[] data, int offset, int count, int elementLength) {
+        // The total length is computed as a long, so a huge count cannot wrap around into range
+        long length = (long) count * elementLength;
+        if (count < 0 || elementLength < 0 || offset < 0 || offset > data.length - length)
+            throw new IllegalArgumentException("Element range is outside the array");
+    }
+
+}
@@ -0,0 +1,218 @@
+package io.horizontalsystems.hdwalletkit;
+
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Per-thread scratch state for BIP 32 key derivation.  The digests and the input and output
+ * buffers are reused for every derivation on a thread, so the hot path only allocates what
+ * ends up in the derived key.
+ *
+ * HMAC-SHA512 is computed from precomputed inner and outer digest states (the digests after
+ * absorbing key ^ ipad and key ^ opad).  The states are kept for the last key used, so all
+ * children derived from one parent by a call share them and each child costs two SHA-512
+ * compressions less.
+ *
+ * The buffers hold parent private keys, chain codes and HMAC outputs, so every derivation
+ * calls clear() when it finishes and nothing secret outlives the call on the thread.
+ */
+final class DerivationContext {
+
+    /**
+     * SHA-512 block size
+     */
+    private static final int BLOCK_SIZE = 128;
+
+    /**
+     * Digest states for the root key HMAC key "Bitcoin seed".  They are never updated after
+     * construction, so every thread can restore its digest from them.
+     */
+    private static final SHA512Digest bitcoinSeedInner = new SHA512Digest();
+    private static final SHA512Digest bitcoinSeedOuter = new SHA512Digest();
+    static {
+        HMacKey.initStates("Bitcoin seed".getBytes(StandardCharsets.US_ASCII), bitcoinSeedInner, bitcoinSeedOuter,
+                new byte[2 * BLOCK_SIZE]);
+    }
+
+    /**
+     * One context per thread
+     */
+    private static final ThreadLocal<DerivationContext> contexts = new ThreadLocal<DerivationContext>() {
+        @Override
+        protected DerivationContext initialValue() {
+            return new DerivationContext();
+        }
+    };
+
+    /**
+     * Digest used to compute the HMAC
+     */
+    private final SHA512Digest digest = new SHA512Digest();
+
+    /**
+     * Inner and outer digest states for the current HMAC key
+     */
+    private final SHA512Digest inner = new SHA512Digest();
+    private final SHA512Digest outer = new SHA512Digest();
+
+    /**
+     * HMAC key the inner and outer states were computed for, or null after clear()
+     */
+    private byte[] stateKey;
+
+    /**
+     * Padded key blocks
+     */
+    private final byte[] blocks = new byte[2 * BLOCK_SIZE];
+
+    /**
+     * HMAC input: serP(K) or 0x00 || ser256(k), followed by ser32(i)
+     */
+    private final byte[] data = new byte[37];
+
+    /**
+     * HMAC output: IL || IR
+     */
+    private final byte[] output = new byte[64];
+
+    /**
+     * Digests and intermediate SHA-256 hash used to compute public key hashes
+     */
+    private final SHA256Digest sha256 = new SHA256Digest();
+    private final RIPEMD160Digest ripemd160 = new RIPEMD160Digest();
+    private final byte[] sha256Hash = new byte[32];
+
+    private DerivationContext() {
+    }
+
+    /**
+     * Return the context of the calling thread
+     *
+     * @return Derivation context
+     */
+    static DerivationContext get() {
+        return contexts.get();
+    }
+
+    /**
+     * Compute I = HMAC-SHA512(Key = key, Data = input)
+     *
+     * @param key   HMAC key
+     * @param input Data to be hashed
+     */
+    void hmacSha512(byte[] key, byte[] input) {
+        if (!Arrays.equals(key, stateKey)) {
+            HMacKey.initStates(key, inner, outer, blocks);
+            stateKey = Arrays.copyOf(key, key.length);
+        }
+        mac(inner, outer, input);
+    }
+
+    /**
+     * Compute I = HMAC-SHA512(Key = "Bitcoin seed", Data = seed)
+     *
+     * @param seed HD seed
+     */
+    void hmacBitcoinSeed(byte[] seed) {
+        mac(bitcoinSeedInner, bitcoinSeedOuter, seed);
+    }
+
+    /**
+     * Compute I = HMAC-SHA512(Key = chainCode, Data = serP(pubKey) || ser32(childNumber))
+     *
+     * @param chainCode   Parent chain code
+     * @param pubKey      Compressed parent public key
+     * @param childNumber Child number
+     */
+    void hmacPubKey(byte[] chainCode, byte[] pubKey, int childNumber) {
+        System.arraycopy(pubKey, 0, data, 0, 33);
+        hmacData(chainCode, childNumber);
+    }
+
+    /**
+     * Compute I = HMAC-SHA512(Key = chainCode, Data = 0x00 || ser256(privKey) || ser32(childNumber))
+     *
+     * @param chainCode   Parent chain code
+     * @param privKey     Parent private key
+     * @param childNumber Child number including the hardened flag
+     */
+    void hmacPrivKey(byte[] chainCode, Scalar256 privKey, int childNumber) {
+        data[0] = 0;
+        privKey.toBytes(data, 1);
+        hmacData(chainCode, childNumber);
+    }
+
+    /**
+     * Return parse256(IL) of the last HMAC
+     *
+     * @return IL as a positive integer
+     */
+    Scalar256 getIL() {
+        return Scalar256.fromBytes(output, 0);
+    }
+
+    /**
+     * Return a copy of IR of the last HMAC
+     *
+     * @return IR
+     */
+    byte[] copyIR() {
+        return Arrays.copyOfRange(output, 32, 64);
+    }
+
+    /**
+     * Zero the HMAC input and output, the key blocks, the key the HMAC states were computed for
+     * and the digest states.  The next HMAC recomputes its key states.
+     */
+    void clear() {
+        Arrays.fill(data, (byte) 0);
+        Arrays.fill(output, (byte) 0);
+        Arrays.fill(blocks, (byte) 0);
+        if (stateKey != null) {
+            Arrays.fill(stateKey, (byte) 0);
+            stateKey = null;
+        }
+        // Resetting a digest also zeroes its buffered input and message schedule
+        digest.reset();
+        inner.reset();
+        outer.reset();
+    }
+
+    /**
+     * Compute RIPEMD160(SHA256(input)) without locking or allocating
+     *
+     * @param input        Input buffer
+     * @param inputOffset  Starting offset of the data to be hashed
+     * @param inputLength  Length of the data to be hashed
+     * @param out          Output buffer receiving the 20-byte hash
+     * @param outOffset    Starting offset within the output buffer
+     */
+    void hash160(byte[] input, int inputOffset, int inputLength, byte[] out, int outOffset) {
+        sha256.update(input, inputOffset, inputLength);
+        sha256.doFinal(sha256Hash, 0);
+        ripemd160.update(sha256Hash, 0, 32);
+        ripemd160.doFinal(out, outOffset);
+    }
+
+    private void mac(SHA512Digest innerState, SHA512Digest outerState, byte[] input) {
+        digest.reset(innerState);
+        digest.update(input, 0, input.length);
+        digest.doFinal(output, 0);
+        digest.reset(outerState);
+        digest.update(output, 0, 64);
+        digest.doFinal(output, 0);
+    }
+
+    private void hmacData(byte[] chainCode, int childNumber) {
+        data[33] = (byte) (childNumber >>> 24);
+        data[34] = (byte) (childNumber >>> 16);
+        data[35] = (byte) (childNumber >>> 8);
+        data[36] = (byte) childNumber;
+        hmacSha512(chainCode, data);
+    }
+
+}
@@ -0,0 +1,207 @@
+package io.horizontalsystems.hdwalletkit;
+
+/**
+ * An immutable BIP 32 derivation path.  Child numbers are stored with the hardened
+ * flag folded in so that a path can be walked without any string parsing.
+ */
+public final class DerivationPath {
+
+    /**
+     * Root path (m)
+     */
+    public static final DerivationPath ROOT = new DerivationPath(new int[0], 0);
+
+    /**
+     * Child numbers with HDKey.HARDENED_FLAG set for hardened children.  Prefixes share the
+     * array of the path they were taken from, so only the first 'depth' entries are valid.
+     */
+    private final int[] childNumbers;
+
+    /**
+     * Number of levels below the root
+     */
+    private final int depth;
+
+    /**
+     * Cached hash code
+     */
+    private final int hashCode;
+
+    private DerivationPath(int[] childNumbers, int depth) {
+        this.childNumbers = childNumbers;
+        this.depth = depth;
+        int hash = 1;
+        for (int i = 0; i < depth; i++)
+            hash = 31 * hash + childNumbers[i];
+        this.hashCode = hash;
+    }
+
+    /**
+     * Parse a BIP 32 path.  Path syntax: m | / | (m/)?([0-9]+'?(/[0-9]+'?)*)?
+     *
+     * @param path Path string, for example "m/44'/0'/0'/0"
+     * @return Derivation path
+     * @throws NumberFormatException    Path contains an invalid child number or an empty level,
+     *                                  such as the one after a leading '/' or a trailing '/'
+     * @throws IllegalArgumentException Path contains a negative child number
+     */
+    public static DerivationPath parse(String path) throws NumberFormatException {
+        int length = path.length();
+        if (length == 0 || path.equals("m") || path.equals("/"))
+            return ROOT;
+        int start = path.startsWith("m/") ? 2 : 0;
+
+        int levels = 1;
+        for (int i = start; i < length; i++) {
+            if (path.charAt(i) == '/')
+                levels++;
+        }
+        int[] childNumbers = new int[levels];
+        int level = 0;
+        while (start <= length) {
+            int end = path.indexOf('/', start);
+            if (end < 0)
+                end = length;
+            if (end == start)
+                throw new NumberFormatException("Empty level in path: " + path);
+            boolean hardened = path.charAt(end - 1) == '\'';
+            int index = Integer.parseInt(path.substring(start, hardened ? end - 1 : end));
+            if (index < 0)
+                throw new IllegalArgumentException("Hardened flag must not be set in child number");
+            childNumbers[level++] = hardened ? index | HDKey.HARDENED_FLAG : index;
+            start = end + 1;
+        }
+        return new DerivationPath(childNumbers, levels);
+    }
+
+    /**
+     * Return the number of levels below the root
+     *
+     * @return Path depth (root path is depth 0)
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Return the child number at the given level, including the hardened flag
+     *
+     * @param level Level (first level below the root is 0)
+     * @return Child number
+     */
+    public int get(int level) {
+        if (level < 0 || level >= depth)
+            throw new IndexOutOfBoundsException("Level " + level + " is out of range");
+        return childNumbers[level];
+    }
+
+    /**
+     * Return the child number at the given level without the hardened flag
+     *
+     * @param level Level (first level below the root is 0)
+     * @return Child number
+     */
+    public int getChildNumber(int level) {
+        return get(level) & ~HDKey.HARDENED_FLAG;
+    }
+
+    /**
+     * Check if the child at the given level is hardened
+     *
+     * @param level Level (first level below the root is 0)
+     * @return TRUE if the child is hardened
+     */
+    public boolean isHardened(int level) {
+        return (get(level) & HDKey.HARDENED_FLAG) != 0;
+    }
+
+    /**
+     * Return the path of a child of this path
+     *
+     * @param childNumber Child number
+     * @param hardened    TRUE for a hardened child
+     * @return Child path
+     */
+    public DerivationPath child(int childNumber, boolean hardened) {
+        if ((childNumber & HDKey.HARDENED_FLAG) != 0)
+            throw new IllegalArgumentException("Hardened flag must not be set in child number");
+        int[] extended = new int[depth + 1];
+        System.arraycopy(childNumbers, 0, extended, 0, depth);
+        extended[depth] = hardened ? childNumber | HDKey.HARDENED_FLAG : childNumber;
+        return new DerivationPath(extended, depth + 1);
+    }
+
+    /**
+     * Return the path of the parent
+     *
+     * @return Parent path
+     */
+    public DerivationPath parent() {
+        if (depth == 0)
+            throw new IllegalStateException("Root path has no parent");
+        return prefix(depth - 1);
+    }
+
+    /**
+     * Return the first levels of this path
+     *
+     * @param depth Number of levels to keep
+     * @return Path prefix
+     */
+    public DerivationPath prefix(int depth) {
+        if (depth < 0 || depth > this.depth)
+            throw new IndexOutOfBoundsException("Depth " + depth + " is out of range");
+        if (depth == this.depth)
+            return this;
+        return depth == 0 ? ROOT : new DerivationPath(childNumbers, depth);
+    }
+
+    /**
+     * Checks if two objects are equal
+     *
+     * @param obj The object to check
+     * @return TRUE if the object is equal
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof DerivationPath))
+            return false;
+        DerivationPath other = (DerivationPath) obj;
+        if (depth != other.depth || hashCode != other.hashCode)
+            return false;
+        for (int i = 0; i < depth; i++) {
+            if (childNumbers[i] != other.childNumbers[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the hash code for this object
+     *
+     * @return Hash code
+     */
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * Get string representation of this path
+     *
+     * @return Path string
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("m");
+        for (int i = 0; i < depth; i++) {
+            sb.append('/').append(childNumbers[i] & ~HDKey.HARDENED_FLAG);
+            if ((childNumbers[i] & HDKey.HARDENED_FLAG) != 0)
+                sb.append('\'');
+        }
+        return sb.toString();
+    }
+
+}
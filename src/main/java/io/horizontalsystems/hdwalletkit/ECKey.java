@@ -30,7 +30,9 @@ import org.bouncycastle.crypto.signers.ECDSASigner;
 import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
 import org.bouncycastle.math.ec.ECAlgorithms;
 import org.bouncycastle.math.ec.ECFieldElement;
+import org.bouncycastle.math.ec.ECMultiplier;
 import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
 import org.bouncycastle.math.ec.custom.sec.SecP256K1Curve;
 import org.bouncycastle.util.encoders.Base64;
 
@@ -60,6 +62,12 @@ public class ECKey {
         HALF_CURVE_ORDER = params.getN().shiftRight(1);
     }
 
+    /**
+     * Fixed-base comb multiplier for the generator point.  The comb table is built on first
+     * use, stored with G and shared by all threads.
+     */
+    private static final ECMultiplier fixedPointMultiplier = new FixedPointCombMultiplier();
+
     /** Strong random number generator */
     private static final SecureRandom secureRandom = new SecureRandom();
 
@@ -69,17 +77,20 @@ public class ECKey {
     /** Key label */
     private String label = "";
 
-    /** Public key */
-    private byte[] pubKey;
+    /** Public key (computed from the private key on first use if not supplied) */
+    private volatile byte[] pubKey;
 
     /** Public key hash */
-    private byte[] pubKeyHash;
+    private volatile byte[] pubKeyHash;
 
     /** P2SH-P2WPKH script hash */
     private byte[] scriptHash;
 
-    /** Private key */
-    private BigInteger privKey;
+    /** Private key (converted from the 256-bit scalar on first use if not supplied) */
+    private volatile BigInteger privKey;
+
+    /** Private key as a 256-bit scalar (converted from the BigInteger on first use if not supplied) */
+    private volatile Scalar256 privScalar;
 
     /** Key creation time (seconds) */
     private long creationTime;
@@ -114,7 +125,7 @@ public class ECKey {
      * @param       pubKey              Public key
      */
     public ECKey(byte[] pubKey) {
-        this(pubKey, null, false);
+        this(pubKey, (BigInteger)null, false);
     }
 
     /**
@@ -131,8 +142,8 @@ public class ECKey {
     /**
      * Creates an ECKey with the supplied public/private key pair.  The private key may be
      * null if you only want to use this ECKey to verify signatures.  The public key will
-     * be generated from the private key if it is not provided (the 'compressed' parameter
-     * determines the type of public key created)
+     * be generated from the private key on first use if it is not provided (the 'compressed'
+     * parameter determines the type of public key created)
      *
      * @param       pubKey              Public key or null
      * @param       privKey             Private key or null
@@ -144,7 +155,27 @@ public class ECKey {
             this.pubKey = Arrays.copyOfRange(pubKey, 0, pubKey.length);
             isCompressed = (pubKey.length==33);
         } else if (privKey != null) {
-            this.pubKey = pubKeyFromPrivKey(privKey, compressed);
+            isCompressed = compressed;
+        } else {
+            throw new IllegalArgumentException("You must provide at least a private key or a public key");
+        }
+        creationTime = System.currentTimeMillis()/1000;
+    }
+
+    /**
+     * Creates an ECKey with the supplied public key and 256-bit private key.  The public key
+     * will be generated from the private key on first use if it is not provided.
+     *
+     * @param       pubKey              Public key or null
+     * @param       privKey             Private key, less than the curve order
+     * @param       compressed          TRUE to create a compressed public key
+     */
+    ECKey(byte[] pubKey, Scalar256 privKey, boolean compressed) {
+        this.privScalar = privKey;
+        if (pubKey != null) {
+            this.pubKey = Arrays.copyOfRange(pubKey, 0, pubKey.length);
+            isCompressed = (pubKey.length==33);
+        } else if (privKey != null) {
             isCompressed = compressed;
         } else {
             throw new IllegalArgumentException("You must provide at least a private key or a public key");
@@ -299,7 +330,13 @@ public class ECKey {
      * @return                          Public key
      */
     public byte[] getPubKey() {
-        return pubKey;
+        byte[] key = pubKey;
+        if (key == null) {
+            Scalar256 scalar = privScalar;
+            key = (scalar != null ? pubKeyPointFromPrivKey(scalar) : pubKeyPointFromPrivKey(privKey)).getEncoded(isCompressed);
+            pubKey = key;
+        }
+        return key;
     }
 
     /**
@@ -308,9 +345,12 @@ public class ECKey {
      * @return                          Public key hash
      */
     public byte[] getPubKeyHash() {
-        if (pubKeyHash == null)
-            pubKeyHash = Utils.sha256Hash160(pubKey);
-        return pubKeyHash;
+        byte[] hash = pubKeyHash;
+        if (hash == null) {
+            hash = Utils.sha256Hash160(getPubKey());
+            pubKeyHash = hash;
+        }
+        return hash;
     }
 
     /**
@@ -319,7 +359,32 @@ public class ECKey {
      * @return                          Private key or null if there is no private key
      */
     public BigInteger getPrivKey() {
-        return privKey;
+        BigInteger key = privKey;
+        if (key == null) {
+            Scalar256 scalar = privScalar;
+            if (scalar != null) {
+                key = scalar.toBigInteger();
+                privKey = key;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Returns the private key as a 256-bit scalar
+     *
+     * @return                          Private key or null if there is no private key
+     */
+    Scalar256 getPrivScalar() {
+        Scalar256 scalar = privScalar;
+        if (scalar == null) {
+            BigInteger key = privKey;
+            if (key != null) {
+                scalar = Scalar256.fromBigInteger(key);
+                privScalar = scalar;
+            }
+        }
+        return scalar;
     }
 
     /**
@@ -328,7 +393,8 @@ public class ECKey {
      * @return                          Private key bytes or null if there is no private key
      */
     public byte[] getPrivKeyBytes() {
-        return (privKey!=null ? privKey.toByteArray() : null);
+        BigInteger key = getPrivKey();
+        return (key!=null ? key.toByteArray() : null);
     }
 
     /**
@@ -337,7 +403,7 @@ public class ECKey {
      * @return                          TRUE if there is a private key
      */
     public boolean hasPrivKey() {
-        return (privKey!=null);
+        return (privKey!=null || privScalar!=null);
     }
 
     /**
@@ -357,7 +423,7 @@ public class ECKey {
      * @throws      ECException             Unable to create signature
      */
     public ECDSASignature createECDSASignature(byte[] contents) throws ECException {
-        if (privKey == null)
+        if (!hasPrivKey())
             throw new IllegalStateException("No private key available");
         //
         // Get the double SHA-256 hash of the signed contents
@@ -369,7 +435,7 @@ public class ECKey {
         BigInteger[] sigs;
         try {
             ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
-            ECPrivateKeyParameters privKeyParams = new ECPrivateKeyParameters(privKey, ecParams);
+            ECPrivateKeyParameters privKeyParams = new ECPrivateKeyParameters(getPrivKey(), ecParams);
             signer.init(true, privKeyParams);
             sigs = signer.generateSignature(contentsHash);
         } catch (RuntimeException exc) {
@@ -398,7 +464,7 @@ public class ECKey {
      */
     public String signMessage(String message) throws ECException {
         String encodedSignature;
-        if (privKey == null)
+        if (!hasPrivKey())
             throw new IllegalStateException("No private key available");
         try {
             //
@@ -425,7 +491,7 @@ public class ECKey {
             int recID = -1;
             for (int i=0; i<4; i++) {
                 ECKey k = recoverFromSignature(i, sig, e, isCompressed());
-                if (k != null && Arrays.equals(k.getPubKey(), pubKey)) {
+                if (k != null && Arrays.equals(k.getPubKey(), getPubKey())) {
                     recID = i;
                     break;
                 }
@@ -486,7 +552,7 @@ public class ECKey {
         try {
             ECDSASigner signer = new ECDSASigner();
             ECPublicKeyParameters params = new ECPublicKeyParameters(
-                    ecParams.getCurve().decodePoint(pubKey), ecParams);
+                    ecParams.getCurve().decodePoint(getPubKey()), ecParams);
             signer.init(false, params);
             isValid = signer.verifySignature(contentsHash, sig.getR(), sig.getS());
         } catch (RuntimeException exc) {
@@ -600,7 +666,17 @@ public class ECKey {
         } else {
             adjKey = privKey;
         }
-        return ecParams.getG().multiply(adjKey);
+        return fixedPointMultiplier.multiply(ecParams.getG(), adjKey);
+    }
+
+    /**
+     * Get the public key ECPoint from a private key less than the curve order
+     *
+     * @param       privKey             Private key
+     * @return                          Public key ECPoint
+     */
+    static ECPoint pubKeyPointFromPrivKey(Scalar256 privKey) {
+        return fixedPointMultiplier.multiply(ecParams.getG(), privKey.toBigInteger());
     }
 
     /**
@@ -614,6 +690,38 @@ public class ECKey {
         return pubKeyPointFromPrivKey(privKey).getEncoded(compressed);
     }
 
+    /**
+     * Create the public keys for a batch of private keys.  The points are computed in
+     * projective coordinates and converted to affine coordinates together, so the whole
+     * batch needs a single field inversion.
+     *
+     * @param       privKeys            Private keys
+     * @param       compressed          TRUE to generate compressed public keys
+     * @return                          Public keys in the order of the private keys
+     */
+    public static byte[][] pubKeysFromPrivKeys(BigInteger[] privKeys, boolean compressed) {
+        ECPoint[] points = new ECPoint[privKeys.length];
+        for (int i = 0; i < privKeys.length; i++)
+            points[i] = pubKeyPointFromPrivKey(privKeys[i]);
+        return encodePoints(points, compressed);
+    }
+
+    /**
+     * Normalize a batch of points with a single field inversion (Montgomery's trick) and
+     * encode them.  The array entries are replaced by their normalized points.
+     *
+     * @param       points              Points in any coordinate system
+     * @param       compressed          TRUE to generate compressed public keys
+     * @return                          Encoded points
+     */
+    static byte[][] encodePoints(ECPoint[] points, boolean compressed) {
+        ecParams.getCurve().normalizeAll(points);
+        byte[][] encoded = new byte[points.length][];
+        for (int i = 0; i < points.length; i++)
+            encoded[i] = points[i].getEncoded(compressed);
+        return encoded;
+    }
+
     /**
      * Checks if two objects are equal
      *
@@ -622,7 +730,7 @@ public class ECKey {
      */
     @Override
     public boolean equals(Object obj) {
-        return (obj!=null && (obj instanceof ECKey) && Arrays.equals(pubKey, ((ECKey)obj).pubKey));
+        return (obj!=null && (obj instanceof ECKey) && Arrays.equals(getPubKey(), ((ECKey)obj).getPubKey()));
     }
 
     /**
@@ -632,6 +740,6 @@ public class ECKey {
      */
     @Override
     public int hashCode() {
-        return Arrays.hashCode(pubKey);
+        return Arrays.hashCode(getPubKey());
     }
 }
@@ -57,12 +57,8 @@ public class HDKey extends ECKey {
     private final int depth;
 
     /**
-     * Parent fingerprint or 0 if root key
-     */
-    private final int parentFingerprint;
-
-    /**
-     * Create a new HD key from a private key
+     * Create a new HD key from a private key.  The compressed public key is not computed
+     * until it is needed.
      *
      * @param privKey     Private key
      * @param chainCode   Chain code
@@ -76,14 +72,35 @@ public class HDKey extends ECKey {
             throw new IllegalArgumentException("Private key is longer than 33 bytes");
         if (chainCode.length != 32)
             throw new IllegalArgumentException("Chain code is not 32 bytes");
-        if (getPubKey().length != 33)
-            throw new IllegalStateException("Public key is not compressed");
         this.chainCode = Arrays.copyOfRange(chainCode, 0, chainCode.length);
         this.parent = parent;
         this.isHardened = isHardened;
         this.childNumber = childNumber;
         this.depth = (parent != null ? parent.getDepth() + 1 : 0);
-        this.parentFingerprint = (parent != null ? parent.getFingerprint() : 0);
+    }
+
+    /**
+     * Create a new HD key for a freshly derived child.  The chain code array is owned by
+     * the new key and is not copied.
+     *
+     * @param pubKey      Compressed public key or null to compute it from the private key when needed
+     * @param privKey     Private key or null if there is no private key
+     * @param chainCode   Chain code
+     * @param parent      Parent or null if no parent
+     * @param childNumber Child number (first child is 0)
+     * @param isHardened  TRUE if the child is hardened
+     */
+    HDKey(byte[] pubKey, Scalar256 privKey, byte[] chainCode, HDKey parent, int childNumber, boolean isHardened) {
+        super(pubKey, privKey, true);
+        if (pubKey != null && pubKey.length != 33)
+            throw new IllegalArgumentException("Public key is not compressed");
+        if (chainCode.length != 32)
+            throw new IllegalArgumentException("Chain code is not 32 bytes");
+        this.chainCode = chainCode;
+        this.parent = parent;
+        this.isHardened = isHardened;
+        this.childNumber = childNumber;
+        this.depth = (parent != null ? parent.getDepth() + 1 : 0);
     }
 
     /**
@@ -107,7 +124,6 @@ public class HDKey extends ECKey {
         this.isHardened = isHardened;
         this.childNumber = childNumber;
         this.depth = (parent != null ? parent.getDepth() + 1 : 0);
-        this.parentFingerprint = (parent != null ? parent.getFingerprint() : 0);
     }
 
     /**
@@ -152,9 +168,8 @@ public class HDKey extends ECKey {
      * @return Padded private key
      */
     public byte[] getPaddedPrivKeyBytes() {
-        byte[] privKeyBytes = getPrivKeyBytes();
         byte[] paddedBytes = new byte[33];
-        System.arraycopy(privKeyBytes, 0, paddedBytes, 33 - privKeyBytes.length, privKeyBytes.length);
+        getPrivScalar().toBytes(paddedBytes, 1);
         return paddedBytes;
     }
 
@@ -182,12 +197,13 @@ public class HDKey extends ECKey {
     }
 
     /**
-     * Return the parent fingerprint
+     * Return the parent fingerprint.  It is computed from the public key of the parent,
+     * which is memoized once it has been derived.
      *
-     * @return Parent fingerprint
+     * @return Parent fingerprint or 0 if this is the root key
      */
     public int getParentFingerprint() {
-        return parentFingerprint;
+        return (parent != null ? parent.getFingerprint() : 0);
     }
 
     /**
@@ -18,15 +18,16 @@ package io.horizontalsystems.hdwalletkit;
 
 import org.bouncycastle.math.ec.ECPoint;
 
-import java.math.BigInteger;
-import java.nio.ByteBuffer;
-import java.util.Arrays;
-
 /**
  * Hierarchical Deterministic key derivation (BIP 32)
  */
 public class HDKeyDerivation {
 
+    /**
+     * Maximum number of points normalized together by deriveNonHardenedPublicKeys
+     */
+    private static final int BATCH_SIZE = 256;
+
     /**
      * Generate a root key from the given seed.  The seed must be at least 128 bits.
      *
@@ -45,15 +46,18 @@ public class HDKeyDerivation {
         // - Use parse256(IL) as master secret key, and IR as master chain code.
         //   In case IL is 0 or ≥n, the master key is invalid.
         //
-        byte[] i = Utils.hmacSha512("Bitcoin seed".getBytes(), seed);
-        byte[] il = Arrays.copyOfRange(i, 0, 32);
-        byte[] ir = Arrays.copyOfRange(i, 32, 64);
-        BigInteger privKey = new BigInteger(1, il);
-        if (privKey.signum() == 0)
-            throw new HDDerivationException("Generated master private key is zero");
-        if (privKey.compareTo(ECKey.ecParams.getN()) >= 0)
-            throw new HDDerivationException("Generated master private key is not less than N");
-        return new HDKey(privKey, ir, null, 0, false);
+        DerivationContext context = DerivationContext.get();
+        try {
+            context.hmacBitcoinSeed(seed);
+            Scalar256 privKey = context.getIL();
+            if (privKey.isZero())
+                throw new HDDerivationException("Generated master private key is zero");
+            if (privKey.compareTo(Scalar256.N) >= 0)
+                throw new HDDerivationException("Generated master private key is not less than N");
+            return new HDKey(null, privKey, context.copyIR(), null, 0, false);
+        } finally {
+            context.clear();
+        }
     }
 
     /**
@@ -79,7 +83,7 @@ public class HDKeyDerivation {
         HDKey derivedKey;
         if ((childNumber & HDKey.HARDENED_FLAG) != 0)
             throw new IllegalArgumentException("Hardened flag must not be set in child number");
-        if (parent.getPrivKey() == null) {
+        if (!parent.hasPrivKey()) {
             if (hardened)
                 throw new IllegalStateException("Hardened key requires parent private key");
             derivedKey = derivePublicKey(parent, childNumber);
@@ -89,6 +93,157 @@ public class HDKeyDerivation {
         return derivedKey;
     }
 
+    /**
+     * Derive a descendant key by walking the given path from the parent.  The path is relative
+     * to the parent, so passing a full path together with the root key yields the key at that path.
+     *
+     * @param parent Parent key
+     * @param path   Path relative to the parent
+     * @return Derived key
+     * @throws HDDerivationException Unable to derive key
+     */
+    public static HDKey deriveKey(HDKey parent, DerivationPath path) throws HDDerivationException {
+        HDKey key = parent;
+        for (int level = 0; level < path.getDepth(); level++) {
+            key = deriveChildKey(key, path.getChildNumber(level), path.isHardened(level));
+        }
+        return key;
+    }
+
+    /**
+     * Derive a range of normal (non-hardened) children of the parent.  Child public keys are
+     * computed in projective coordinates and normalized together, so the batch needs a single
+     * field inversion instead of one per child.  A public parent key is decoded only once.
+     *
+     * @param parent     Parent key
+     * @param firstChild First child number
+     * @param count      Number of children to derive
+     * @return Derived keys in child number order
+     * @throws HDDerivationException Unable to derive one of the keys
+     */
+    public static HDKey[] deriveNonHardenedChildKeys(HDKey parent, int firstChild, int count)
+            throws HDDerivationException {
+        if (count < 0)
+            throw new IllegalArgumentException("Child count must not be negative");
+        if (count == 0)
+            return new HDKey[0];
+        if ((firstChild & HDKey.HARDENED_FLAG) != 0 || ((firstChild + count - 1) & HDKey.HARDENED_FLAG) != 0)
+            throw new IllegalArgumentException("Hardened flag must not be set in child number");
+        //
+        // Same as derivePrivateKey/derivePublicKey for a normal child, except that the points
+        // are left in projective coordinates until the whole range has been derived.
+        //
+        byte[] parentPubKey = parent.getPubKey();
+        if (parentPubKey.length != 33)
+            throw new IllegalStateException("Parent public key is not 33 bytes");
+        Scalar256 parentPrivKey = parent.getPrivScalar();
+        ECPoint parentPoint = (parentPrivKey == null ? ECKey.ecParams.getCurve().decodePoint(parentPubKey) : null);
+        Scalar256[] privKeys = (parentPrivKey != null ? new Scalar256[count] : null);
+        ECPoint[] points = new ECPoint[count];
+        byte[][] chainCodes = new byte[count][];
+        DerivationContext context = DerivationContext.get();
+        try {
+            for (int n = 0; n < count; n++) {
+                context.hmacPubKey(parent.getChainCode(), parentPubKey, firstChild + n);
+                Scalar256 ilInt = context.getIL();
+                if (ilInt.compareTo(Scalar256.N) >= 0)
+                    throw new HDDerivationException("Derived private key is not less than N");
+                if (parentPrivKey != null) {
+                    Scalar256 ki = parentPrivKey.addModN(ilInt);
+                    if (ki.isZero())
+                        throw new HDDerivationException("Derived private key is zero");
+                    privKeys[n] = ki;
+                    points[n] = ECKey.pubKeyPointFromPrivKey(ki);
+                } else {
+                    ECPoint Ki = ECKey.pubKeyPointFromPrivKey(ilInt).add(parentPoint);
+                    if (Ki.isInfinity())
+                        throw new HDDerivationException("Derived public key equals infinity");
+                    points[n] = Ki;
+                }
+                chainCodes[n] = context.copyIR();
+            }
+        } finally {
+            context.clear();
+        }
+        byte[][] pubKeys = ECKey.encodePoints(points, true);
+        HDKey[] keys = new HDKey[count];
+        for (int n = 0; n < count; n++) {
+            if (privKeys != null)
+                keys[n] = new HDKey(pubKeys[n], privKeys[n], chainCodes[n], parent, firstChild + n, false);
+            else
+                keys[n] = new HDKey(pubKeys[n], null, chainCodes[n], parent, firstChild + n, false);
+        }
+        return keys;
+    }
+
+    /**
+     * Derive the compressed public keys and public key hashes of a range of normal
+     * (non-hardened) children straight into caller-provided buffers.  No HDKey is created
+     * for the children: child n is written to pubKeys[pubKeysOffset + 33 * n] and its hash
+     * to pubKeyHashes[pubKeyHashesOffset + 20 * n].  The buffers are left partially
+     * written if derivation fails.
+     *
+     * @param parent             Parent key
+     * @param firstChild         First child number
+     * @param count              Number of children to derive
+     * @param pubKeys            Receives the 33-byte compressed public keys
+     * @param pubKeysOffset      Starting offset within the public key buffer
+     * @param pubKeyHashes       Receives the 20-byte public key hashes or null if no hashes are needed
+     * @param pubKeyHashesOffset Starting offset within the public key hash buffer
+     * @throws HDDerivationException Unable to derive one of the keys
+     */
+    public static void deriveNonHardenedPublicKeys(HDKey parent, int firstChild, int count,
+                                                   byte[] pubKeys, int pubKeysOffset,
+                                                   byte[] pubKeyHashes, int pubKeyHashesOffset)
+            throws HDDerivationException {
+        if (count < 0)
+            throw new IllegalArgumentException("Child count must not be negative");
+        if (count == 0)
+            return;
+        if ((firstChild & HDKey.HARDENED_FLAG) != 0 || ((firstChild + count - 1) & HDKey.HARDENED_FLAG) != 0)
+            throw new IllegalArgumentException("Hardened flag must not be set in child number");
+        if (pubKeysOffset < 0 || pubKeysOffset > pubKeys.length - 33L * count)
+            throw new IllegalArgumentException("Public key buffer is too small");
+        if (pubKeyHashes != null && (pubKeyHashesOffset < 0 || pubKeyHashesOffset > pubKeyHashes.length - 20L * count))
+            throw new IllegalArgumentException("Public key hash buffer is too small");
+        //
+        // Ki = point(parse256(IL)) + Kpar holds for a private parent as well, since
+        // point(parse256(IL) + kpar) = point(parse256(IL)) + point(kpar), so the child private
+        // keys are never computed.  The points are normalized in chunks of BATCH_SIZE to bound
+        // the scratch array while still sharing one field inversion across each chunk.
+        //
+        byte[] parentPubKey = parent.getPubKey();
+        if (parentPubKey.length != 33)
+            throw new IllegalStateException("Parent public key is not 33 bytes");
+        ECPoint parentPoint = ECKey.ecParams.getCurve().decodePoint(parentPubKey);
+        ECPoint[] points = new ECPoint[Math.min(count, BATCH_SIZE)];
+        DerivationContext context = DerivationContext.get();
+        try {
+            for (int start = 0; start < count; start += points.length) {
+                int length = Math.min(points.length, count - start);
+                for (int n = 0; n < length; n++) {
+                    context.hmacPubKey(parent.getChainCode(), parentPubKey, firstChild + start + n);
+                    Scalar256 ilInt = context.getIL();
+                    if (ilInt.compareTo(Scalar256.N) >= 0)
+                        throw new HDDerivationException("Derived private key is not less than N");
+                    ECPoint Ki = ECKey.pubKeyPointFromPrivKey(ilInt).add(parentPoint);
+                    if (Ki.isInfinity())
+                        throw new HDDerivationException("Derived public key equals infinity");
+                    points[n] = Ki;
+                }
+                ECKey.ecParams.getCurve().normalizeAll(points, 0, length, null);
+                for (int n = 0; n < length; n++) {
+                    int pubKeyOffset = pubKeysOffset + 33 * (start + n);
+                    System.arraycopy(points[n].getEncoded(true), 0, pubKeys, pubKeyOffset, 33);
+                    if (pubKeyHashes != null)
+                        context.hash160(pubKeys, pubKeyOffset, 33, pubKeyHashes, pubKeyHashesOffset + 20 * (start + n));
+                }
+            }
+        } finally {
+            context.clear();
+        }
+    }
+
     /**
      * Derive a child key from a private key
      *
@@ -100,9 +255,6 @@ public class HDKeyDerivation {
      */
     private static HDKey derivePrivateKey(HDKey parent, int childNumber, boolean hardened)
             throws HDDerivationException {
-        byte[] parentPubKey = parent.getPubKey();
-        if (parentPubKey.length != 33)
-            throw new IllegalStateException("Parent public key is not 33 bytes");
         //
         // From BIP 32:
         // - Check whether i ≥ 231 (whether the child is a hardened key).
@@ -116,24 +268,29 @@ public class HDKeyDerivation {
         // In case parse256(IL) ≥ n or ki = 0, the resulting key is invalid,
         // and one should proceed with the next value for i.
         //
-        ByteBuffer dataBuffer = ByteBuffer.allocate(37);
-        if (hardened) {
-            dataBuffer.put(parent.getPaddedPrivKeyBytes())
-                    .putInt(childNumber | HDKey.HARDENED_FLAG);
-        } else {
-            dataBuffer.put(parentPubKey)
-                    .putInt(childNumber);
+        // The parent public key is only needed for a normal child, so a chain of hardened
+        // children never computes the public keys of its intermediate nodes.
+        //
+        DerivationContext context = DerivationContext.get();
+        try {
+            if (hardened) {
+                context.hmacPrivKey(parent.getChainCode(), parent.getPrivScalar(), childNumber | HDKey.HARDENED_FLAG);
+            } else {
+                byte[] parentPubKey = parent.getPubKey();
+                if (parentPubKey.length != 33)
+                    throw new IllegalStateException("Parent public key is not 33 bytes");
+                context.hmacPubKey(parent.getChainCode(), parentPubKey, childNumber);
+            }
+            Scalar256 ilInt = context.getIL();
+            if (ilInt.compareTo(Scalar256.N) >= 0)
+                throw new HDDerivationException("Derived private key is not less than N");
+            Scalar256 ki = parent.getPrivScalar().addModN(ilInt);
+            if (ki.isZero())
+                throw new HDDerivationException("Derived private key is zero");
+            return new HDKey(null, ki, context.copyIR(), parent, childNumber, hardened);
+        } finally {
+            context.clear();
         }
-        byte[] i = Utils.hmacSha512(parent.getChainCode(), dataBuffer.array());
-        byte[] il = Arrays.copyOfRange(i, 0, 32);
-        byte[] ir = Arrays.copyOfRange(i, 32, 64);
-        BigInteger ilInt = new BigInteger(1, il);
-        if (ilInt.compareTo(ECKey.ecParams.getN()) >= 0)
-            throw new HDDerivationException("Derived private key is not less than N");
-        BigInteger ki = parent.getPrivKey().add(ilInt).mod(ECKey.ecParams.getN());
-        if (ki.signum() == 0)
-            throw new HDDerivationException("Derived private key is zero");
-        return new HDKey(ki, ir, parent, childNumber, hardened);
     }
 
     /**
@@ -155,19 +312,7 @@ public class HDKeyDerivation {
         // In case parse256(IL) ≥ n or Ki is the point at infinity, the resulting key is invalid,
         // and one should proceed with the next value for i.
         //
-        ByteBuffer dataBuffer = ByteBuffer.allocate(37);
-        dataBuffer.put(parent.getPubKey()).putInt(childNumber);
-        byte[] i = Utils.hmacSha512(parent.getChainCode(), dataBuffer.array());
-        byte[] il = Arrays.copyOfRange(i, 0, 32);
-        byte[] ir = Arrays.copyOfRange(i, 32, 64);
-        BigInteger ilInt = new BigInteger(1, il);
-        if (ilInt.compareTo(ECKey.ecParams.getN()) >= 0)
-            throw new HDDerivationException("Derived private key is not less than N");
-        ECPoint pubKeyPoint = ECKey.ecParams.getCurve().decodePoint(parent.getPubKey());
-        ECPoint Ki = ECKey.pubKeyPointFromPrivKey(ilInt).add(pubKeyPoint);
-        if (Ki.equals(ECKey.ecParams.getCurve().getInfinity()))
-            throw new HDDerivationException("Derived public key equals infinity");
-        return new HDKey(Ki.getEncoded(true), ir, parent, childNumber, false);
+        return deriveNonHardenedChildKeys(parent, childNumber, 1)[0];
     }
 
 }
@@ -0,0 +1,70 @@
+package io.horizontalsystems.hdwalletkit;
+
+import org.bouncycastle.crypto.ExtendedDigest;
+
+import java.util.Arrays;
+
+/**
+ * HMAC key schedule (RFC 2104) for the HMACs that keep their inner and outer digest states and
+ * restore them for every message instead of hashing the padded key again.  It is the only place
+ * that pads a key, so every such HMAC handles long keys and the pads the same way.
+ */
+final class HMacKey {
+
+    private static final byte IPAD = 0x36;
+    private static final byte OPAD = 0x5c;
+
+    private HMacKey() {
+    }
+
+    /**
+     * Write the padded key blocks K0 ^ ipad and K0 ^ opad, where K0 is the key, or its digest if
+     * the key is longer than a block, padded with zeros to the block size of the digest
+     *
+     * @param key    HMAC key
+     * @param digest Hash function of the HMAC; it is reset when the key has to be hashed
+     * @param blocks Receives K0 ^ ipad in the first block and K0 ^ opad in the second, so it
+     *               must hold two blocks of the digest
+     */
+    static void padBlocks(byte[] key, ExtendedDigest digest, byte[] blocks) {
+        int blockSize = digest.getByteLength();
+        if (blocks.length < 2 * blockSize)
+            throw new IllegalArgumentException("Key blocks must hold two digest blocks");
+        int keyLength = key.length;
+        if (keyLength > blockSize) {
+            digest.reset();
+            digest.update(key, 0, keyLength);
+            keyLength = digest.doFinal(blocks, 0);
+        } else {
+            System.arraycopy(key, 0, blocks, 0, keyLength);
+        }
+        Arrays.fill(blocks, keyLength, blockSize, (byte) 0);
+        for (int i = 0; i < blockSize; i++) {
+            blocks[blockSize + i] = (byte) (blocks[i] ^ OPAD);
+            blocks[i] ^= IPAD;
+        }
+    }
+
+    /**
+     * Set the inner and outer digest states for an HMAC key: the digests after absorbing
+     * K0 ^ ipad and K0 ^ opad
+     *
+     * @param key    HMAC key
+     * @param inner  Receives the inner state
+     * @param outer  Receives the outer state, a digest of the same kind as inner
+     * @param blocks Scratch buffer of two digest blocks; it is zeroed before returning
+     */
+    static void initStates(byte[] key, ExtendedDigest inner, ExtendedDigest outer, byte[] blocks) {
+        int blockSize = inner.getByteLength();
+        try {
+            padBlocks(key, inner, blocks);
+            inner.reset();
+            inner.update(blocks, 0, blockSize);
+            outer.reset();
+            outer.update(blocks, blockSize, blockSize);
+        } finally {
+            Arrays.fill(blocks, (byte) 0);
+        }
+    }
+
+}
@@ -0,0 +1,329 @@
+package io.horizontalsystems.hdwalletkit;
+
+import org.bouncycastle.crypto.digests.SHA512Digest;
+
+import java.util.Arrays;
+
+/**
+ * PBKDF2 with HMAC-SHA512 as the pseudo-random function (RFC 8018, section 5.2).
+ *
+ * Every iteration after the first computes HMAC-SHA512 over the 64-byte output of the previous
+ * one.  The HMAC key is the same throughout, so the SHA-512 states after absorbing key ^ ipad and
+ * key ^ opad are computed once per key, and each iteration is then exactly two SHA-512
+ * compressions: the 64-byte message, its padding and its length always fill a single block.
+ * The iterations run on long arrays without any byte conversion or allocation.  Every buffer
+ * that depends on the password is cleared before derive() returns.
+ *
+ * An engine is not thread-safe; get() returns the engine of the calling thread.
+ */
+final class PBKDF2SHA512Engine {
+
+    /**
+     * HMAC-SHA512 output length (hLen) and SHA-512 block size
+     */
+    private static final int HASH_LENGTH = 64;
+    private static final int BLOCK_SIZE = 128;
+
+    /**
+     * SHA-512 round constants (FIPS 180-4)
+     */
+    private static final long[] K = {
+            0x428a2f98d728ae22L, 0x7137449123ef65cdL, 0xb5c0fbcfec4d3b2fL, 0xe9b5dba58189dbbcL,
+            0x3956c25bf348b538L, 0x59f111f1b605d019L, 0x923f82a4af194f9bL, 0xab1c5ed5da6d8118L,
+            0xd807aa98a3030242L, 0x12835b0145706fbeL, 0x243185be4ee4b28cL, 0x550c7dc3d5ffb4e2L,
+            0x72be5d74f27b896fL, 0x80deb1fe3b1696b1L, 0x9bdc06a725c71235L, 0xc19bf174cf692694L,
+            0xe49b69c19ef14ad2L, 0xefbe4786384f25e3L, 0x0fc19dc68b8cd5b5L, 0x240ca1cc77ac9c65L,
+            0x2de92c6f592b0275L, 0x4a7484aa6ea6e483L, 0x5cb0a9dcbd41fbd4L, 0x76f988da831153b5L,
+            0x983e5152ee66dfabL, 0xa831c66d2db43210L, 0xb00327c898fb213fL, 0xbf597fc7beef0ee4L,
+            0xc6e00bf33da88fc2L, 0xd5a79147930aa725L, 0x06ca6351e003826fL, 0x142929670a0e6e70L,
+            0x27b70a8546d22ffcL, 0x2e1b21385c26c926L, 0x4d2c6dfc5ac42aedL, 0x53380d139d95b3dfL,
+            0x650a73548baf63deL, 0x766a0abb3c77b2a8L, 0x81c2c92e47edaee6L, 0x92722c851482353bL,
+            0xa2bfe8a14cf10364L, 0xa81a664bbc423001L, 0xc24b8b70d0f89791L, 0xc76c51a30654be30L,
+            0xd192e819d6ef5218L, 0xd69906245565a910L, 0xf40e35855771202aL, 0x106aa07032bbd1b8L,
+            0x19a4c116b8d2d0c8L, 0x1e376c085141ab53L, 0x2748774cdf8eeb99L, 0x34b0bcb5e19b48a8L,
+            0x391c0cb3c5c95a63L, 0x4ed8aa4ae3418acbL, 0x5b9cca4f7763e373L, 0x682e6ff3d6b2b8a3L,
+            0x748f82ee5defb2fcL, 0x78a5636f43172f60L, 0x84c87814a1f0ab72L, 0x8cc702081a6439ecL,
+            0x90befffa23631e28L, 0xa4506cebde82bde9L, 0xbef9a3f7b2c67915L, 0xc67178f2e372532bL,
+            0xca273eceea26619cL, 0xd186b8c721c0c207L, 0xeada7dd6cde0eb1eL, 0xf57d4f7fee6ed178L,
+            0x06f067aa72176fbaL, 0x0a637dc5a2c898a6L, 0x113f9804bef90daeL, 0x1b710b35131c471bL,
+            0x28db77f523047d84L, 0x32caab7b40c72493L, 0x3c9ebe0a15c9bebcL, 0x431d67c49c100d4cL,
+            0x4cc5d4becb3e42b6L, 0x597f299cfc657e2aL, 0x5fcb6fab3ad6faecL, 0x6c44198c4a475817L
+    };
+
+    /**
+     * SHA-512 initial hash value
+     */
+    private static final long[] IV = {
+            0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+            0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L
+    };
+
+    /**
+     * One engine per thread
+     */
+    private static final ThreadLocal<PBKDF2SHA512Engine> engines = new ThreadLocal<PBKDF2SHA512Engine>() {
+        @Override
+        protected PBKDF2SHA512Engine initialValue() {
+            return new PBKDF2SHA512Engine();
+        }
+    };
+
+    /**
+     * Message schedule.  While iterating, words 8 to 15 hold the fixed padding of a 64-byte
+     * message that follows one block (the key block) already absorbed by the HMAC state.
+     */
+    private final long[] w = new long[80];
+
+    /**
+     * States after absorbing key ^ ipad and key ^ opad
+     */
+    private final long[] innerState = new long[8];
+    private final long[] outerState = new long[8];
+
+    /**
+     * U(j) of the current iteration, the inner hash and T = U(1) ^ ... ^ U(j)
+     */
+    private final long[] u = new long[8];
+    private final long[] inner = new long[8];
+    private final long[] t = new long[8];
+
+    /**
+     * Padded password blocks, K0 ^ ipad followed by K0 ^ opad
+     */
+    private final byte[] keyBlocks = new byte[2 * BLOCK_SIZE];
+    private final byte[] blockOutput = new byte[HASH_LENGTH];
+    private final byte[] blockIndex = new byte[4];
+    private final SHA512Digest digest = new SHA512Digest();
+
+    /**
+     * Partial message block of the inner hash of U_1
+     */
+    private final byte[] buffer = new byte[BLOCK_SIZE];
+    private int bufferLength;
+
+    private PBKDF2SHA512Engine() {
+    }
+
+    /**
+     * Return the engine of the calling thread
+     *
+     * @return PBKDF2 engine
+     */
+    static PBKDF2SHA512Engine get() {
+        return engines.get();
+    }
+
+    /**
+     * Derive a key
+     *
+     * @param password   Password (P)
+     * @param salt       Salt (S)
+     * @param iterations Iteration count (c)
+     * @param keyLength  Derived key length in bytes (dkLen)
+     * @return Derived key
+     */
+    byte[] derive(byte[] password, byte[] salt, int iterations, int keyLength) {
+        if (iterations <= 0)
+            throw new IllegalArgumentException("Iteration count must be positive");
+        if (keyLength <= 0)
+            throw new IllegalArgumentException("Derived key length must be positive");
+        //
+        // From RFC 8018:
+        //   l = CEIL(dkLen / hLen)
+        //   T_i = F(P, S, c, i) = U_1 \xor U_2 \xor ... \xor U_c
+        //   U_1 = PRF(P, S || INT(i)), U_j = PRF(P, U_{j-1})
+        //   DK = T_1 || T_2 || ... || T_l<0..r-1>
+        //
+        byte[] derivedKey = new byte[keyLength];
+        try {
+            precompute(password);
+            int blocks = (keyLength + HASH_LENGTH - 1) / HASH_LENGTH;
+            for (int i = 1; i <= blocks; i++) {
+                // U_1: inner hash of S || INT(i) after the key block, then the outer hash of that
+                blockIndex[0] = (byte) (i >>> 24);
+                blockIndex[1] = (byte) (i >>> 16);
+                blockIndex[2] = (byte) (i >>> 8);
+                blockIndex[3] = (byte) i;
+                System.arraycopy(innerState, 0, inner, 0, 8);
+                bufferLength = 0;
+                absorb(inner, salt);
+                absorb(inner, blockIndex);
+                finish(inner, (long) BLOCK_SIZE + salt.length + blockIndex.length);
+                setDigestPadding();
+                System.arraycopy(inner, 0, w, 0, 8);
+                System.arraycopy(outerState, 0, u, 0, 8);
+                compress(u, w);
+                System.arraycopy(u, 0, t, 0, 8);
+
+                iterate(iterations - 1);
+
+                for (int n = 0; n < 8; n++)
+                    writeLong(t[n], blockOutput, n * 8);
+                int offset = (i - 1) * HASH_LENGTH;
+                System.arraycopy(blockOutput, 0, derivedKey, offset, Math.min(HASH_LENGTH, keyLength - offset));
+            }
+        } finally {
+            digest.reset();
+            Arrays.fill(keyBlocks, (byte) 0);
+            Arrays.fill(buffer, (byte) 0);
+            Arrays.fill(blockOutput, (byte) 0);
+            Arrays.fill(innerState, 0);
+            Arrays.fill(outerState, 0);
+            Arrays.fill(w, 0);
+            Arrays.fill(u, 0);
+            Arrays.fill(inner, 0);
+            Arrays.fill(t, 0);
+        }
+        return derivedKey;
+    }
+
+    /**
+     * Run U_j = HMAC(P, U_{j-1}) and T ^= U_j the given number of times
+     */
+    private void iterate(int count) {
+        long[] w = this.w;
+        setDigestPadding();
+        for (int j = 0; j < count; j++) {
+            System.arraycopy(u, 0, w, 0, 8);
+            System.arraycopy(innerState, 0, inner, 0, 8);
+            compress(inner, w);
+            System.arraycopy(inner, 0, w, 0, 8);
+            System.arraycopy(outerState, 0, u, 0, 8);
+            compress(u, w);
+            for (int n = 0; n < 8; n++)
+                t[n] ^= u[n];
+        }
+    }
+
+    /**
+     * Set words 8 to 15 of the schedule to the padding of a 64-byte message after one 128-byte
+     * block: 0x80, zeros, bit length 1536
+     */
+    private void setDigestPadding() {
+        w[8] = 0x8000000000000000L;
+        for (int n = 9; n < 15; n++)
+            w[n] = 0;
+        w[15] = (BLOCK_SIZE + HASH_LENGTH) * 8;
+    }
+
+    /**
+     * Feed bytes into a SHA-512 state, compressing every full block
+     *
+     * @param state Hash state, updated in place
+     * @param data  Message bytes
+     */
+    private void absorb(long[] state, byte[] data) {
+        for (byte b : data) {
+            buffer[bufferLength++] = b;
+            if (bufferLength == BLOCK_SIZE) {
+                compressBuffer(state);
+                bufferLength = 0;
+            }
+        }
+    }
+
+    /**
+     * Pad the buffered bytes and compress the final block or blocks (FIPS 180-4, section 5.1.2)
+     *
+     * @param state         Hash state, updated in place
+     * @param messageLength Length in bytes of everything hashed into the state
+     */
+    private void finish(long[] state, long messageLength) {
+        buffer[bufferLength++] = (byte) 0x80;
+        if (bufferLength > BLOCK_SIZE - 16) {
+            Arrays.fill(buffer, bufferLength, BLOCK_SIZE, (byte) 0);
+            compressBuffer(state);
+            bufferLength = 0;
+        }
+        Arrays.fill(buffer, bufferLength, BLOCK_SIZE - 8, (byte) 0);
+        writeLong(messageLength << 3, buffer, BLOCK_SIZE - 8);
+        compressBuffer(state);
+        bufferLength = 0;
+    }
+
+    private void compressBuffer(long[] state) {
+        for (int n = 0; n < 16; n++)
+            w[n] = readLong(buffer, n * 8);
+        compress(state, w);
+    }
+
+    /**
+     * Compute the HMAC inner and outer states for the password
+     */
+    private void precompute(byte[] password) {
+        HMacKey.padBlocks(password, digest, keyBlocks);
+        for (int n = 0; n < 16; n++)
+            w[n] = readLong(keyBlocks, n * 8);
+        System.arraycopy(IV, 0, innerState, 0, 8);
+        compress(innerState, w);
+        for (int n = 0; n < 16; n++)
+            w[n] = readLong(keyBlocks, BLOCK_SIZE + n * 8);
+        System.arraycopy(IV, 0, outerState, 0, 8);
+        compress(outerState, w);
+        Arrays.fill(keyBlocks, (byte) 0);
+    }
+
+    /**
+     * SHA-512 compression function (FIPS 180-4, section 6.4.2).  Words 0 to 15 of the schedule
+     * must hold the message block; words 16 to 79 are overwritten.
+     *
+     * @param state Hash state, updated in place
+     * @param w     Message schedule
+     */
+    private static void compress(long[] state, long[] w) {
+        for (int n = 16; n < 80; n++) {
+            long w2 = w[n - 2];
+            long w15 = w[n - 15];
+            long s1 = Long.rotateRight(w2, 19) ^ Long.rotateRight(w2, 61) ^ (w2 >>> 6);
+            long s0 = Long.rotateRight(w15, 1) ^ Long.rotateRight(w15, 8) ^ (w15 >>> 7);
+            w[n] = s1 + w[n - 7] + s0 + w[n - 16];
+        }
+        long a = state[0], b = state[1], c = state[2], d = state[3];
+        long e = state[4], f = state[5], g = state[6], h = state[7];
+        for (int n = 0; n < 80; n++) {
+            long t1 = h + (Long.rotateRight(e, 14) ^ Long.rotateRight(e, 18) ^ Long.rotateRight(e, 41)) +
+                    ((e & f) ^ (~e & g)) + K[n] + w[n];
+            long t2 = (Long.rotateRight(a, 28) ^ Long.rotateRight(a, 34) ^ Long.rotateRight(a, 39)) +
+                    ((a & b) ^ (a & c) ^ (b & c));
+            h = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+        state[4] += e;
+        state[5] += f;
+        state[6] += g;
+        state[7] += h;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        return ((long) bytes[offset] & 0xFFL) << 56 |
+                ((long) bytes[offset + 1] & 0xFFL) << 48 |
+                ((long) bytes[offset + 2] & 0xFFL) << 40 |
+                ((long) bytes[offset + 3] & 0xFFL) << 32 |
+                ((long) bytes[offset + 4] & 0xFFL) << 24 |
+                ((long) bytes[offset + 5] & 0xFFL) << 16 |
+                ((long) bytes[offset + 6] & 0xFFL) << 8 |
+                ((long) bytes[offset + 7] & 0xFFL);
+    }
+
+    private static void writeLong(long value, byte[] out, int offset) {
+        out[offset] = (byte) (value >>> 56);
+        out[offset + 1] = (byte) (value >>> 48);
+        out[offset + 2] = (byte) (value >>> 40);
+        out[offset + 3] = (byte) (value >>> 32);
+        out[offset + 4] = (byte) (value >>> 24);
+        out[offset + 5] = (byte) (value >>> 16);
+        out[offset + 6] = (byte) (value >>> 8);
+        out[offset + 7] = (byte) value;
+    }
+
+}
@@ -0,0 +1,210 @@
+package io.horizontalsystems.hdwalletkit;
+
+import java.math.BigInteger;
+
+/**
+ * An immutable unsigned 256-bit integer held in four 64-bit limbs.  It covers the scalar
+ * arithmetic needed by BIP 32 derivation (parse256, ser256, comparison with the curve order
+ * and addition modulo the curve order) without going through BigInteger.
+ */
+final class Scalar256 {
+
+    /**
+     * Order of the secp256k1 generator point
+     */
+    static final Scalar256 N = fromBigInteger(ECKey.ecParams.getN());
+
+    /**
+     * Zero
+     */
+    static final Scalar256 ZERO = new Scalar256(0, 0, 0, 0);
+
+    /**
+     * Limbs, least significant first
+     */
+    private final long l0, l1, l2, l3;
+
+    private Scalar256(long l0, long l1, long l2, long l3) {
+        this.l0 = l0;
+        this.l1 = l1;
+        this.l2 = l2;
+        this.l3 = l3;
+    }
+
+    /**
+     * Decode a 32-byte big-endian integer (parse256)
+     *
+     * @param bytes  Byte array
+     * @param offset Starting offset within the array
+     * @return Decoded integer
+     */
+    static Scalar256 fromBytes(byte[] bytes, int offset) {
+        return new Scalar256(readLong(bytes, offset + 24), readLong(bytes, offset + 16),
+                readLong(bytes, offset + 8), readLong(bytes, offset));
+    }
+
+    /**
+     * Convert a BigInteger
+     *
+     * @param value Non-negative integer of at most 256 bits
+     * @return Converted integer
+     */
+    static Scalar256 fromBigInteger(BigInteger value) {
+        if (value.signum() < 0 || value.bitLength() > 256)
+            throw new IllegalArgumentException("Value does not fit in 256 bits");
+        return new Scalar256(value.longValue(), value.shiftRight(64).longValue(),
+                value.shiftRight(128).longValue(), value.shiftRight(192).longValue());
+    }
+
+    /**
+     * Encode as a 32-byte big-endian integer (ser256)
+     *
+     * @param out    Output array
+     * @param offset Starting offset within the array
+     */
+    void toBytes(byte[] out, int offset) {
+        writeLong(l3, out, offset);
+        writeLong(l2, out, offset + 8);
+        writeLong(l1, out, offset + 16);
+        writeLong(l0, out, offset + 24);
+    }
+
+    /**
+     * Encode as a 32-byte big-endian integer (ser256)
+     *
+     * @return Encoded integer
+     */
+    byte[] toBytes() {
+        byte[] bytes = new byte[32];
+        toBytes(bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Convert to a BigInteger
+     *
+     * @return Positive BigInteger
+     */
+    BigInteger toBigInteger() {
+        return new BigInteger(1, toBytes());
+    }
+
+    /**
+     * Check if the value is zero
+     *
+     * @return TRUE if the value is zero
+     */
+    boolean isZero() {
+        return (l0 | l1 | l2 | l3) == 0;
+    }
+
+    /**
+     * Compare two unsigned 256-bit integers
+     *
+     * @param other Integer to compare with
+     * @return Negative, zero or positive as this integer is less than, equal to or greater than the other
+     */
+    int compareTo(Scalar256 other) {
+        if (l3 != other.l3)
+            return Long.compareUnsigned(l3, other.l3);
+        if (l2 != other.l2)
+            return Long.compareUnsigned(l2, other.l2);
+        if (l1 != other.l1)
+            return Long.compareUnsigned(l1, other.l1);
+        return Long.compareUnsigned(l0, other.l0);
+    }
+
+    /**
+     * Add two integers that are both less than N, modulo N
+     *
+     * @param other Integer to add
+     * @return (this + other) mod N
+     */
+    Scalar256 addModN(Scalar256 other) {
+        long s0 = l0 + other.l0;
+        long carry = carry(s0, l0, 0);
+        long s1 = l1 + other.l1 + carry;
+        carry = carry(s1, l1, carry);
+        long s2 = l2 + other.l2 + carry;
+        carry = carry(s2, l2, carry);
+        long s3 = l3 + other.l3 + carry;
+        carry = carry(s3, l3, carry);
+        if (carry == 0 && compare(s0, s1, s2, s3, N) < 0)
+            return new Scalar256(s0, s1, s2, s3);
+        //
+        // Subtract N, dropping the borrow out of the top limb since the sum
+        // overflowed 2^256 exactly when that borrow occurs
+        //
+        long d0 = s0 - N.l0;
+        long borrow = borrow(s0, N.l0, 0);
+        long d1 = s1 - N.l1 - borrow;
+        borrow = borrow(s1, N.l1, borrow);
+        long d2 = s2 - N.l2 - borrow;
+        borrow = borrow(s2, N.l2, borrow);
+        long d3 = s3 - N.l3 - borrow;
+        return new Scalar256(d0, d1, d2, d3);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Scalar256))
+            return false;
+        Scalar256 other = (Scalar256) obj;
+        return l0 == other.l0 && l1 == other.l1 && l2 == other.l2 && l3 == other.l3;
+    }
+
+    @Override
+    public int hashCode() {
+        long hash = l0 ^ l1 ^ l2 ^ l3;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Carry out of sum = a + b + carryIn
+     */
+    private static long carry(long sum, long a, long carryIn) {
+        int cmp = Long.compareUnsigned(sum, a);
+        return (cmp < 0 || (cmp == 0 && carryIn != 0)) ? 1 : 0;
+    }
+
+    /**
+     * Borrow out of a - b - borrowIn
+     */
+    private static long borrow(long a, long b, long borrowIn) {
+        int cmp = Long.compareUnsigned(a, b);
+        return (cmp < 0 || (cmp == 0 && borrowIn != 0)) ? 1 : 0;
+    }
+
+    private static int compare(long s0, long s1, long s2, long s3, Scalar256 other) {
+        if (s3 != other.l3)
+            return Long.compareUnsigned(s3, other.l3);
+        if (s2 != other.l2)
+            return Long.compareUnsigned(s2, other.l2);
+        if (s1 != other.l1)
+            return Long.compareUnsigned(s1, other.l1);
+        return Long.compareUnsigned(s0, other.l0);
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        return ((long) bytes[offset] & 0xFFL) << 56 |
+                ((long) bytes[offset + 1] & 0xFFL) << 48 |
+                ((long) bytes[offset + 2] & 0xFFL) << 40 |
+                ((long) bytes[offset + 3] & 0xFFL) << 32 |
+                ((long) bytes[offset + 4] & 0xFFL) << 24 |
+                ((long) bytes[offset + 5] & 0xFFL) << 16 |
+                ((long) bytes[offset + 6] & 0xFFL) << 8 |
+                ((long) bytes[offset + 7] & 0xFFL);
+    }
+
+    private static void writeLong(long value, byte[] out, int offset) {
+        out[offset] = (byte) (value >>> 56);
+        out[offset + 1] = (byte) (value >>> 48);
+        out[offset + 2] = (byte) (value >>> 40);
+        out[offset + 3] = (byte) (value >>> 32);
+        out[offset + 4] = (byte) (value >>> 24);
+        out[offset + 5] = (byte) (value >>> 16);
+        out[offset + 6] = (byte) (value >>> 8);
+        out[offset + 7] = (byte) value;
+    }
+
+}
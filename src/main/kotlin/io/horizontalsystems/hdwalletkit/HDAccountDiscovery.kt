@@ -0,0 +1,140 @@
+package io.horizontalsystems.hdwalletkit
+
+import java.util.ArrayDeque
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.FutureTask
+
+/// Finds the used keys of an account by scanning both chains until `gapLimit` consecutive unused keys are found.
+/// Keys are derived in windows; the next `prefetchWindows` windows are derived on `executor` while the keys of the
+/// current window are checked against the lookup, so a slow lookup and CPU-bound derivation overlap.
+/// With a null `executor` nothing is prefetched: a window is only derived once the previous one is checked
+/// without reaching the gap limit, which avoids the wasted window when scans already run in parallel.
+/// A prefetched window the executor has not started yet is derived by the scan itself when it is needed,
+/// so a scan never waits for a queued task and any executor can be shared with the scans.
+class HDAccountDiscovery internal constructor(
+        private val wallet: HDWallet,
+        private val lookup: KeyUsageLookup,
+        private val executor: Executor?,
+        private val gapLimit: Int,
+        private val windowSize: Int,
+        private val prefetchWindows: () -> Int
+) {
+
+    constructor(
+            wallet: HDWallet,
+            lookup: KeyUsageLookup,
+            executor: Executor?,
+            gapLimit: Int = wallet.gapLimit,
+            windowSize: Int = wallet.gapLimit,
+            prefetchWindows: Int = 1
+    ) : this(wallet, lookup, executor, gapLimit, windowSize, { prefetchWindows }) {
+        require(prefetchWindows >= 0) { "Prefetch window count must not be negative" }
+    }
+
+    interface KeyUsageLookup {
+        fun isUsed(publicKey: HDPublicKey): Boolean
+    }
+
+    class ChainResult(val usedKeys: List<HDPublicKey>, val lastUsedIndex: Int) {
+        val isUsed: Boolean
+            get() = usedKeys.isNotEmpty()
+    }
+
+    class AccountResult(val account: Int, val external: ChainResult, val internal: ChainResult) {
+        /// True if either chain has used keys. BIP44 account discovery only goes by the external chain.
+        val isUsed: Boolean
+            get() = external.isUsed || internal.isUsed
+    }
+
+    init {
+        require(gapLimit > 0) { "Gap limit must be positive" }
+        require(windowSize > 0) { "Window size must be positive" }
+    }
+
+    fun discover(account: Int): AccountResult {
+        return AccountResult(account, discover(account, true), discover(account, false))
+    }
+
+    fun discover(account: Int, external: Boolean): ChainResult {
+        val usedKeys = mutableListOf<HDPublicKey>()
+        var lastUsedIndex = -1
+        var unusedCount = 0
+
+        // Windows requested from the executor, in index order, and the start of the first window after them
+        val ahead = ArrayDeque<FutureTask<List<HDPublicKey>>>()
+        var range = windowRange(0)
+        var nextFrom = nextStart(range)
+        var window = wallet.hdPublicKeys(account, range, external)
+
+        try {
+            while (true) {
+                if (executor != null) {
+                    // Read for every window, so a scan can take up threads that other scans have freed
+                    val depth = prefetchWindows()
+                    while (ahead.size < depth && nextFrom >= 0) {
+                        val aheadRange = windowRange(nextFrom)
+                        ahead.add(deriveAsync(executor, account, aheadRange, external))
+                        nextFrom = nextStart(aheadRange)
+                    }
+                }
+
+                for (publicKey in window) {
+                    if (lookup.isUsed(publicKey)) {
+                        usedKeys.add(publicKey)
+                        lastUsedIndex = publicKey.index
+                        unusedCount = 0
+                    } else {
+                        unusedCount++
+                    }
+                    if (unusedCount >= gapLimit) {
+                        return ChainResult(usedKeys, lastUsedIndex)
+                    }
+                }
+                // The last non-hardened index ends the chain
+                if (range.last == Int.MAX_VALUE) {
+                    return ChainResult(usedKeys, lastUsedIndex)
+                }
+
+                range = windowRange(range.last + 1)
+                val next = ahead.poll()
+                if (next == null) {
+                    window = wallet.hdPublicKeys(account, range, external)
+                    nextFrom = nextStart(range)
+                } else {
+                    window = awaitWindow(next)
+                }
+            }
+        } finally {
+            // Stops the windows still ahead on every exit; windows already taken are unaffected
+            ahead.forEach { it.cancel(false) }
+        }
+    }
+
+    /// Window starting at `from`, clamped to the last non-hardened index
+    private fun windowRange(from: Int): IntRange {
+        return from..(if (Int.MAX_VALUE - from < windowSize) Int.MAX_VALUE else from + windowSize - 1)
+    }
+
+    /// Start of the window after `range`, or -1 past the last non-hardened index
+    private fun nextStart(range: IntRange): Int {
+        return if (range.last == Int.MAX_VALUE) -1 else range.last + 1
+    }
+
+    private fun deriveAsync(executor: Executor, account: Int, range: IntRange, external: Boolean): FutureTask<List<HDPublicKey>> {
+        val task = FutureTask { wallet.hdPublicKeys(account, range, external) }
+        executor.execute(task)
+        return task
+    }
+
+    private fun awaitWindow(task: FutureTask<List<HDPublicKey>>): List<HDPublicKey> {
+        // No-op if the executor already started or finished the window
+        task.run()
+        try {
+            return task.get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.bouncycastle.crypto.digests.RIPEMD160Digest
+import org.bouncycastle.crypto.digests.SHA256Digest
+
+/// Encodes public key hashes into the address type that matches a wallet purpose:
+/// P2PKH (Base58Check) for BIP44, P2SH-P2WPKH (Base58Check) for BIP49 and P2WPKH (bech32) for BIP84.
+/// Batches are encoded with one set of digests and buffers, Base58 works on a small digit array instead of
+/// BigInteger, and the bech32 checksum state of the human-readable part is computed once per encoder,
+/// so encoding allocates little more than the resulting strings. Encoders are immutable and thread-safe.
+class HDAddressEncoder(
+        val purpose: HDWallet.Purpose,
+        private val pubKeyHashVersion: Int = MAIN_NET_PUBKEY_HASH_VERSION,
+        private val scriptHashVersion: Int = MAIN_NET_SCRIPT_HASH_VERSION,
+        private val bech32Hrp: String = MAIN_NET_BECH32_HRP
+) {
+
+    companion object {
+        const val MAIN_NET_PUBKEY_HASH_VERSION = 0x00
+        const val MAIN_NET_SCRIPT_HASH_VERSION = 0x05
+        const val MAIN_NET_BECH32_HRP = "bc"
+
+        const val TEST_NET_PUBKEY_HASH_VERSION = 0x6f
+        const val TEST_NET_SCRIPT_HASH_VERSION = 0xc4
+        const val TEST_NET_BECH32_HRP = "tb"
+
+        fun testNet(purpose: HDWallet.Purpose): HDAddressEncoder {
+            return HDAddressEncoder(purpose, TEST_NET_PUBKEY_HASH_VERSION, TEST_NET_SCRIPT_HASH_VERSION, TEST_NET_BECH32_HRP)
+        }
+
+        private const val HASH_SIZE = HDPublicKeyBatch.PUBLIC_KEY_HASH_SIZE
+        private const val BASE58_ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz"
+        private const val BECH32_CHARSET = "qpzry9x8gf2tvdw0s3jn54khce6mua7l"
+        private val BECH32_GENERATOR = intArrayOf(0x3b6a57b2, 0x26508e6d, 0x1ea119fa, 0x3d4233dd, 0x2a1462b3)
+
+        private fun bech32PolymodStep(checksum: Int, value: Int): Int {
+            val top = checksum ushr 25
+            var result = ((checksum and 0x1ffffff) shl 5) xor value
+            for (i in 0 until 5) {
+                if (((top ushr i) and 1) != 0) {
+                    result = result xor BECH32_GENERATOR[i]
+                }
+            }
+            return result
+        }
+    }
+
+    /// Buffers reused for every address of one batch
+    private class Scratch {
+        val sha256 = SHA256Digest()
+        val ripemd160 = RIPEMD160Digest()
+        val hash = ByteArray(32)
+        val redeemScript = ByteArray(22)
+        // version | hash160 | checksum
+        val payload = ByteArray(25)
+        // ceil(25 * log(256) / log(58)) digits
+        val digits = ByteArray(35)
+        val chars = CharArray(128)
+    }
+
+    /// bech32 checksum state after the expanded human-readable part (BIP 173)
+    private val hrpChecksum: Int
+
+    init {
+        require(pubKeyHashVersion in 0..255 && scriptHashVersion in 0..255) { "Version must be a single byte" }
+        require(bech32Hrp.isNotEmpty() && bech32Hrp.length <= 83 && bech32Hrp.all { it in '!'..'~' && !it.isUpperCase() }) {
+            "Invalid bech32 human-readable part"
+        }
+        var checksum = 1
+        for (c in bech32Hrp) {
+            checksum = bech32PolymodStep(checksum, c.toInt() ushr 5)
+        }
+        checksum = bech32PolymodStep(checksum, 0)
+        for (c in bech32Hrp) {
+            checksum = bech32PolymodStep(checksum, c.toInt() and 31)
+        }
+        hrpChecksum = checksum
+    }
+
+    fun encode(publicKeyHash: ByteArray, offset: Int = 0): String {
+        require(offset >= 0 && offset + HASH_SIZE <= publicKeyHash.size) { "Public key hash must be 20 bytes" }
+        return encode(publicKeyHash, offset, Scratch())
+    }
+
+    /// Encodes `count` public key hashes stored back to back starting at `offset`
+    fun encodeAll(publicKeyHashes: ByteArray, offset: Int, count: Int): Array<String> {
+        require(count >= 0 && offset >= 0 && offset.toLong() + count.toLong() * HASH_SIZE <= publicKeyHashes.size) {
+            "Public key hash range is outside the array"
+        }
+        val scratch = Scratch()
+        return Array(count) { encode(publicKeyHashes, offset + it * HASH_SIZE, scratch) }
+    }
+
+    fun encodeAll(batch: HDPublicKeyBatch): Array<String> {
+        return encodeAll(batch.publicKeyHashes, 0, batch.count)
+    }
+
+    fun encodeAll(publicKeys: List<HDPublicKey>): List<String> {
+        val scratch = Scratch()
+        return publicKeys.map { encode(it.publicKeyHash, 0, scratch) }
+    }
+
+    private fun encode(hash: ByteArray, offset: Int, scratch: Scratch): String {
+        return when (purpose) {
+            HDWallet.Purpose.BIP44 -> base58Check(pubKeyHashVersion, hash, offset, scratch)
+            HDWallet.Purpose.BIP49 -> {
+                // redeemScript = OP_0 <20-byte public key hash>
+                val script = scratch.redeemScript
+                script[0] = 0x00
+                script[1] = 0x14
+                System.arraycopy(hash, offset, script, 2, HASH_SIZE)
+                scratch.sha256.update(script, 0, script.size)
+                scratch.sha256.doFinal(scratch.hash, 0)
+                scratch.ripemd160.update(scratch.hash, 0, 32)
+                scratch.ripemd160.doFinal(scratch.hash, 0)
+                base58Check(scriptHashVersion, scratch.hash, 0, scratch)
+            }
+            HDWallet.Purpose.BIP84 -> bech32(hash, offset, scratch)
+        }
+    }
+
+    private fun base58Check(version: Int, hash: ByteArray, offset: Int, scratch: Scratch): String {
+        val payload = scratch.payload
+        payload[0] = version.toByte()
+        System.arraycopy(hash, offset, payload, 1, HASH_SIZE)
+        scratch.sha256.update(payload, 0, 21)
+        scratch.sha256.doFinal(scratch.hash, 0)
+        scratch.sha256.update(scratch.hash, 0, 32)
+        scratch.sha256.doFinal(scratch.hash, 0)
+        System.arraycopy(scratch.hash, 0, payload, 21, 4)
+
+        // Repeated division by 58, least significant digit first
+        val digits = scratch.digits
+        var length = 0
+        var zeros = 0
+        while (zeros < payload.size && payload[zeros].toInt() == 0) {
+            zeros++
+        }
+        for (i in zeros until payload.size) {
+            var carry = payload[i].toInt() and 0xFF
+            for (j in 0 until length) {
+                carry += (digits[j].toInt() and 0xFF) shl 8
+                digits[j] = (carry % 58).toByte()
+                carry /= 58
+            }
+            while (carry > 0) {
+                digits[length++] = (carry % 58).toByte()
+                carry /= 58
+            }
+        }
+
+        val chars = scratch.chars
+        for (i in 0 until zeros) {
+            chars[i] = '1'
+        }
+        for (i in 0 until length) {
+            chars[zeros + i] = BASE58_ALPHABET[digits[length - 1 - i].toInt()]
+        }
+        return String(chars, 0, zeros + length)
+    }
+
+    private fun bech32(hash: ByteArray, offset: Int, scratch: Scratch): String {
+        val chars = scratch.chars
+        var length = 0
+        for (c in bech32Hrp) {
+            chars[length++] = c
+        }
+        chars[length++] = '1'
+
+        // Witness version 0 followed by the program regrouped into 5-bit values
+        var checksum = bech32PolymodStep(hrpChecksum, 0)
+        chars[length++] = BECH32_CHARSET[0]
+        var accumulator = 0
+        var bits = 0
+        for (i in offset until offset + HASH_SIZE) {
+            accumulator = (accumulator shl 8) or (hash[i].toInt() and 0xFF)
+            bits += 8
+            while (bits >= 5) {
+                bits -= 5
+                val value = (accumulator ushr bits) and 31
+                checksum = bech32PolymodStep(checksum, value)
+                chars[length++] = BECH32_CHARSET[value]
+            }
+        }
+        // 160 bits are a multiple of 5, so no padding is left over
+
+        for (i in 0 until 6) {
+            checksum = bech32PolymodStep(checksum, 0)
+        }
+        checksum = checksum xor 1
+        for (i in 0 until 6) {
+            chars[length++] = BECH32_CHARSET[(checksum ushr (5 * (5 - i))) and 31]
+        }
+        return String(chars, 0, length)
+    }
+
+}
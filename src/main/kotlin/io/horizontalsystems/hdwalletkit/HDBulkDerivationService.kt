@@ -0,0 +1,132 @@
+package io.horizontalsystems.hdwalletkit
+
+import java.io.Closeable
+import java.util.ArrayDeque
+import java.util.concurrent.Callable
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.Semaphore
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+
+/// Derives sets of paths for many seeds on a fixed pool of worker threads.
+/// At most `capacity` jobs are in flight, counting both queued jobs and finished results that have not been
+/// taken yet: `submit` blocks once that limit is reached, which bounds memory however fast jobs are produced.
+/// Results are taken in submission order. Worker threads live as long as the service, so the per-thread
+/// derivation state (digests and buffers) is reused across all jobs of a thread.
+class HDBulkDerivationService(
+        threads: Int = Runtime.getRuntime().availableProcessors(),
+        val capacity: Int = threads * 4
+) : Closeable {
+
+    class Job(val seed: ByteArray, val paths: List<DerivationPath>)
+
+    /// Keys in the order of the job's paths, with their public keys already computed.
+    /// These are full private keys, and each one keeps its parent chain up to the master key, so a result
+    /// holds the seed's private key material until it is dropped. Keep only `pubKey`/`pubKeyHash` if
+    /// public keys are all that is needed.
+    class Result(val job: Job, val keys: List<HDKey>)
+
+    private val executor: ExecutorService
+    private val permits: Semaphore
+    private val pending = ArrayDeque<Future<Result>>()
+    private val takeLock = Any()
+
+    @Volatile
+    private var closed = false
+
+    init {
+        require(threads > 0) { "Thread count must be positive" }
+        require(capacity > 0) { "Capacity must be positive" }
+        val threadNumber = AtomicInteger()
+        executor = Executors.newFixedThreadPool(threads, ThreadFactory { runnable ->
+            Thread(runnable, "hd-derivation-${threadNumber.incrementAndGet()}").apply { isDaemon = true }
+        })
+        permits = Semaphore(capacity)
+    }
+
+    /// Number of submitted jobs whose results have not been taken yet
+    val pendingCount: Int
+        get() = synchronized(pending) { pending.size }
+
+    /// Queues a job, blocking while `capacity` jobs are in flight
+    fun submit(job: Job) {
+        check(!closed) { "Service is closed" }
+        permits.acquire()
+        try {
+            synchronized(pending) {
+                check(!closed) { "Service is closed" }
+                pending.addLast(executor.submit(Callable { derive(job) }))
+            }
+        } catch (e: Exception) {
+            permits.release()
+            throw e
+        }
+    }
+
+    /// Returns the result of the oldest job that has not been taken, waiting for it if necessary.
+    /// If that job failed, its exception is thrown and the job counts as taken. If the waiting thread is
+    /// interrupted, the job stays pending. Throws IllegalStateException once the service is closed, also to
+    /// a thread that is waiting when it is closed.
+    fun take(): Result {
+        synchronized(takeLock) {
+            check(!closed) { "Service is closed" }
+            val future = synchronized(pending) { pending.peekFirst() } ?: throw IllegalStateException("No pending jobs")
+            val result = try {
+                future.get()
+            } catch (e: CancellationException) {
+                throw IllegalStateException("Service is closed")
+            } catch (e: ExecutionException) {
+                removeFirst()
+                throw e.cause ?: e
+            }
+            removeFirst()
+            return result
+        }
+    }
+
+    /// Streams the results of `jobs` in order. Jobs are submitted as results are consumed, so no more than
+    /// `capacity` jobs are in flight. Must not be interleaved with other calls to `submit` or `take`.
+    fun deriveAll(jobs: Sequence<Job>): Sequence<Result> {
+        return sequence {
+            for (job in jobs) {
+                if (pendingCount == capacity) {
+                    yield(take())
+                }
+                submit(job)
+            }
+            while (pendingCount > 0) {
+                yield(take())
+            }
+        }
+    }
+
+    /// Cancels the jobs that have not been taken and stops the workers
+    override fun close() {
+        synchronized(pending) {
+            closed = true
+            pending.forEach { it.cancel(true) }
+        }
+        executor.shutdownNow()
+        // Wakes submitters blocked on a full queue, which then fail as the service is closed
+        permits.release(capacity)
+    }
+
+    private fun removeFirst() {
+        synchronized(pending) { pending.pollFirst() }
+        permits.release()
+    }
+
+    private fun derive(job: Job): Result {
+        // One keychain per job, so paths of the job with common ancestors derive those ancestors once
+        val keychain = HDKeychain(job.seed)
+        val keys = job.paths.map { path ->
+            keychain.getKeyByPath(path).also { it.pubKey }
+        }
+        return Result(job, keys)
+    }
+
+}
@@ -0,0 +1,88 @@
+package io.horizontalsystems.hdwalletkit
+
+import java.util.ArrayDeque
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/// Bounded cache of derived intermediate HD nodes keyed by their path.
+/// Reads are lock-free and only mark the entry as recently used. Writers evict under a lock with the
+/// CLOCK (second chance) approximation of LRU: entries wait in insertion order, an entry that was read
+/// since it was last considered is moved to the back, and the first unread one is evicted, so each
+/// insert costs amortized constant time whatever the cache size.
+class HDKeyCache(val maxSize: Int) {
+
+    private class Entry(val path: DerivationPath, val key: HDKey) {
+        @Volatile
+        var referenced = false
+    }
+
+    private val entries = ConcurrentHashMap<DerivationPath, Entry>()
+    /// Every entry of the map once, in eviction order. Guarded by evictionLock.
+    private val clock = ArrayDeque<Entry>()
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictionLock = Any()
+
+    init {
+        require(maxSize > 0) { "Cache size must be positive" }
+    }
+
+    val hitCount: Long
+        get() = hits.get()
+
+    val missCount: Long
+        get() = misses.get()
+
+    val size: Int
+        get() = entries.size
+
+    /// Returns the cached key and counts the lookup as a hit or a miss
+    fun get(path: DerivationPath): HDKey? {
+        val key = peek(path)
+        if (key == null) {
+            misses.incrementAndGet()
+        } else {
+            hits.incrementAndGet()
+        }
+        return key
+    }
+
+    /// Returns the cached key without counting the lookup
+    fun peek(path: DerivationPath): HDKey? {
+        val entry = entries[path] ?: return null
+        if (!entry.referenced) {
+            entry.referenced = true
+        }
+        return entry.key
+    }
+
+    /// Keys are a function of their path, so a path that is already cached keeps its entry
+    fun put(path: DerivationPath, key: HDKey) {
+        synchronized(evictionLock) {
+            val entry = Entry(path, key)
+            if (entries.putIfAbsent(path, entry) != null) {
+                return
+            }
+            clock.addLast(entry)
+            while (entries.size > maxSize) {
+                val eldest = clock.pollFirst() ?: return
+                if (eldest.referenced) {
+                    eldest.referenced = false
+                    clock.addLast(eldest)
+                } else {
+                    entries.remove(eldest.path, eldest)
+                }
+            }
+        }
+    }
+
+    fun clear() {
+        synchronized(evictionLock) {
+            entries.clear()
+            clock.clear()
+        }
+        hits.set(0)
+        misses.set(0)
+    }
+
+}
@@ -0,0 +1,219 @@
+package io.horizontalsystems.hdwalletkit
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/// Maps 20-byte public key hashes to the purpose/account/chain/index they were derived at.
+/// Entries live in an open-addressing table with linear probing inside a direct ByteBuffer, so millions of
+/// keys cost no Java objects and no GC scanning. Each 32-byte slot holds the hash followed by the packed location.
+///
+/// Lookups never lock and can run from any number of threads. Writers are serialized; a slot is filled hash first
+/// and value last, and a full table is rehashed into a new buffer that replaces the old one through a volatile
+/// reference, so a lookup never probes a table that is being rehashed. A key is visible to lookups once its `add` returns.
+class HDKeyHashIndex(initialCapacity: Int = DEFAULT_CAPACITY) {
+
+    companion object {
+        const val DEFAULT_CAPACITY = 1024
+        const val NOT_FOUND = -1L
+
+        private const val HASH_SIZE = 20
+        private const val SLOT_SIZE = 32
+        private const val VALUE_OFFSET = 24
+        // Largest slot count whose buffer size, capacity * SLOT_SIZE, fits in an Int (1 GiB)
+        private const val MAX_CAPACITY = 1 shl 25
+
+        /// Largest number of keys the index can hold, as the table is at most half full
+        const val MAX_INITIAL_CAPACITY = MAX_CAPACITY / 2
+
+        private const val OCCUPIED = 1L shl 63
+        private const val ACCOUNT_BITS = 22
+        private const val INDEX_BITS = 31
+
+        /// Packs a location into the 62 low bits of a long: purpose (8 bits), account (22 bits),
+        /// chain (1 bit) and index (31 bits)
+        fun pack(purpose: HDWallet.Purpose, account: Int, external: Boolean, index: Int): Long {
+            require(account >= 0 && account < (1 shl ACCOUNT_BITS)) { "Account is out of range" }
+            require(index >= 0) { "Index must not be negative" }
+            return (purpose.value.toLong() shl (ACCOUNT_BITS + 1 + INDEX_BITS)) or
+                    (account.toLong() shl (1 + INDEX_BITS)) or
+                    ((if (external) 0L else 1L) shl INDEX_BITS) or
+                    index.toLong()
+        }
+
+        fun unpack(location: Long): Location {
+            val purposeValue = (location ushr (ACCOUNT_BITS + 1 + INDEX_BITS)).toInt() and 0xFF
+            val purpose = HDWallet.Purpose.values().first { it.value == purposeValue }
+            val account = (location ushr (1 + INDEX_BITS)).toInt() and ((1 shl ACCOUNT_BITS) - 1)
+            val external = ((location ushr INDEX_BITS) and 1L) == 0L
+            val index = location.toInt() and Int.MAX_VALUE
+            return Location(purpose, account, external, index)
+        }
+    }
+
+    class Location(val purpose: HDWallet.Purpose, val account: Int, val external: Boolean, val index: Int) {
+
+        override fun equals(other: Any?): Boolean {
+            return other is Location && purpose == other.purpose && account == other.account &&
+                    external == other.external && index == other.index
+        }
+
+        override fun hashCode(): Int {
+            return ((purpose.hashCode() * 31 + account) * 31 + external.hashCode()) * 31 + index
+        }
+    }
+
+    private class Table(val capacity: Int) {
+        val buffer: ByteBuffer = ByteBuffer.allocateDirect(capacity * SLOT_SIZE).order(ByteOrder.BIG_ENDIAN)
+        val mask = capacity - 1
+    }
+
+    @Volatile
+    private var table: Table
+
+    @Volatile
+    private var count = 0
+
+    private val writeLock = Any()
+
+    init {
+        require(initialCapacity in 1..MAX_INITIAL_CAPACITY) { "Initial capacity must be in 1..$MAX_INITIAL_CAPACITY" }
+        var capacity = 2
+        while (capacity < initialCapacity * 2) {
+            capacity = capacity shl 1
+        }
+        table = Table(capacity)
+    }
+
+    val size: Int
+        get() = count
+
+    /// Returns the packed location of `hash`, or NOT_FOUND. Does not allocate.
+    fun lookup(hash: ByteArray, offset: Int = 0): Long {
+        require(offset >= 0 && offset + HASH_SIZE <= hash.size) { "Hash must be 20 bytes" }
+        if (count == 0) {
+            return NOT_FOUND
+        }
+        val t = table
+        val h0 = readLong(hash, offset)
+        val h1 = readLong(hash, offset + 8)
+        val h2 = readInt(hash, offset + 16)
+        var slot = slotOf(h0, t.mask)
+        while (true) {
+            val base = slot * SLOT_SIZE
+            val value = t.buffer.getLong(base + VALUE_OFFSET)
+            if (value == 0L) {
+                return NOT_FOUND
+            }
+            if (t.buffer.getLong(base) == h0 && t.buffer.getLong(base + 8) == h1 && t.buffer.getInt(base + 16) == h2) {
+                return value and OCCUPIED.inv()
+            }
+            slot = (slot + 1) and t.mask
+        }
+    }
+
+    fun get(hash: ByteArray, offset: Int = 0): Location? {
+        val location = lookup(hash, offset)
+        return if (location == NOT_FOUND) null else unpack(location)
+    }
+
+    fun contains(hash: ByteArray, offset: Int = 0): Boolean {
+        return lookup(hash, offset) != NOT_FOUND
+    }
+
+    /// Adds or replaces the location of a hash
+    fun add(hash: ByteArray, offset: Int, location: Long) {
+        require(offset >= 0 && offset + HASH_SIZE <= hash.size) { "Hash must be 20 bytes" }
+        require(location >= 0) { "Location must be packed" }
+        synchronized(writeLock) {
+            if ((count + 1) * 2 > table.capacity) {
+                grow()
+            }
+            // The volatile write of count publishes the slot to lookups, which read count first
+            val inserted = insert(table, hash, offset, location or OCCUPIED)
+            count += if (inserted) 1 else 0
+        }
+    }
+
+    fun add(hash: ByteArray, location: Location) {
+        add(hash, 0, pack(location.purpose, location.account, location.external, location.index))
+    }
+
+    /// Derives the keys of `indices` from `wallet` and adds their hashes
+    fun addAll(wallet: HDWallet, account: Int, indices: IntRange, external: Boolean) {
+        val batch = wallet.hdPublicKeyBatch(account, indices, external)
+        addAll(batch, wallet.purpose, account)
+    }
+
+    fun addAll(batch: HDPublicKeyBatch, purpose: HDWallet.Purpose, account: Int) {
+        for (position in 0 until batch.count) {
+            add(batch.publicKeyHashes, position * HDPublicKeyBatch.PUBLIC_KEY_HASH_SIZE,
+                    pack(purpose, account, batch.external, batch.index(position)))
+        }
+    }
+
+    private fun grow() {
+        val old = table
+        check(old.capacity < MAX_CAPACITY) { "Index is full" }
+        val grown = Table(old.capacity shl 1)
+        val hash = ByteArray(HASH_SIZE)
+        for (slot in 0 until old.capacity) {
+            val base = slot * SLOT_SIZE
+            val value = old.buffer.getLong(base + VALUE_OFFSET)
+            if (value != 0L) {
+                for (i in 0 until HASH_SIZE) {
+                    hash[i] = old.buffer.get(base + i)
+                }
+                insert(grown, hash, 0, value)
+            }
+        }
+        table = grown
+    }
+
+    /// A zero value marks an empty slot, so the value is written after the hash.
+    /// Returns true if a new slot was taken.
+    private fun insert(t: Table, hash: ByteArray, offset: Int, value: Long): Boolean {
+        val h0 = readLong(hash, offset)
+        val h1 = readLong(hash, offset + 8)
+        val h2 = readInt(hash, offset + 16)
+        var slot = slotOf(h0, t.mask)
+        while (true) {
+            val base = slot * SLOT_SIZE
+            val existing = t.buffer.getLong(base + VALUE_OFFSET)
+            if (existing == 0L) {
+                t.buffer.putLong(base, h0)
+                t.buffer.putLong(base + 8, h1)
+                t.buffer.putInt(base + 16, h2)
+                t.buffer.putLong(base + VALUE_OFFSET, value)
+                return true
+            }
+            if (t.buffer.getLong(base) == h0 && t.buffer.getLong(base + 8) == h1 && t.buffer.getInt(base + 16) == h2) {
+                t.buffer.putLong(base + VALUE_OFFSET, value)
+                return false
+            }
+            slot = (slot + 1) and t.mask
+        }
+    }
+
+    /// Hash160 output is uniformly distributed, so its leading bytes only need mixing into the slot range
+    private fun slotOf(h0: Long, mask: Int): Int {
+        val mixed = h0 xor (h0 ushr 32)
+        return (mixed.toInt() xor (mixed.toInt() ushr 16)) and mask
+    }
+
+    private fun readLong(bytes: ByteArray, offset: Int): Long {
+        var value = 0L
+        for (i in 0 until 8) {
+            value = (value shl 8) or (bytes[offset + i].toLong() and 0xFF)
+        }
+        return value
+    }
+
+    private fun readInt(bytes: ByteArray, offset: Int): Int {
+        var value = 0
+        for (i in 0 until 4) {
+            value = (value shl 8) or (bytes[offset + i].toInt() and 0xFF)
+        }
+        return value
+    }
+
+}
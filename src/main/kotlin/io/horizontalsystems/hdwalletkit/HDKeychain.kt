@@ -1,59 +1,192 @@
 package io.horizontalsystems.hdwalletkit
 
-class HDKeychain(seed: ByteArray, private val compressed: Boolean = true) {
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+import java.util.concurrent.atomic.AtomicReference
 
-    private var privateKey: HDKey = HDKeyDerivation.createRootKey(seed)
+class HDKeychain(seed: ByteArray, private val compressed: Boolean = true, cacheSize: Int = DEFAULT_CACHE_SIZE) {
+
+    companion object {
+        const val DEFAULT_CACHE_SIZE = 64
+
+        /// Number of children derived sequentially by a single fork/join task
+        const val PARALLEL_BATCH_SIZE = 64
+    }
+
+    private val privateKey: HDKey = HDKeyDerivation.createRootKey(seed)
+
+    /// Intermediate nodes (everything above the requested leaf, and the leaf itself if asked for) keyed by
+    /// their path from the root.
+    private val cache = HDKeyCache(cacheSize)
+
+    /// Hash160 of the root public key, which identifies the seed without revealing it
+    val rootIdentifier: ByteArray
+        get() = privateKey.pubKeyHash.copyOf()
+
+    /// Key that authenticates the records of an HDPublicKeyFileCache of this seed. It is derived from the
+    /// root private key, so only holders of the seed can write records that verify. Callers clear the
+    /// returned copy after use.
+    internal val publicKeyCacheKey: ByteArray
+        get() {
+            val privateKeyBytes = privateKey.paddedPrivKeyBytes
+            val digest = Utils.hmacSha512("HD public key cache".toByteArray(Charsets.US_ASCII), privateKeyBytes)
+            val key = digest.copyOf(32)
+            privateKeyBytes.fill(0)
+            digest.fill(0)
+            return key
+        }
+
+    val cacheHitCount: Long
+        get() = cache.hitCount
+
+    val cacheMissCount: Long
+        get() = cache.missCount
+
+    /// Drops all cached intermediate nodes
+    fun clearCache() {
+        cache.clear()
+    }
 
     /// Parses the BIP32 path and derives the chain of keychains accordingly.
-    /// Path syntax: (m?/)?([0-9]+'?(/[0-9]+'?)*)?
+    /// Path syntax: m | / | (m/)?([0-9]+'?(/[0-9]+'?)*)?
     /// The following paths are valid:
     ///
     /// "" (root key)
     /// "m" (root key)
     /// "/" (root key)
     /// "m/0'" (hardened child #0 of the root key)
-    /// "/0'" (hardened child #0 of the root key)
     /// "0'" (hardened child #0 of the root key)
     /// "m/44'/1'/2'" (BIP44 testnet account #2)
-    /// "/44'/1'/2'" (BIP44 testnet account #2)
     /// "44'/1'/2'" (BIP44 testnet account #2)
     ///
     /// The following paths are invalid:
     ///
+    /// "/0'" (leading '/' without "m")
     /// "m / 0 / 1" (contains spaces)
     /// "m/b/c" (alphabetical characters instead of numerical indexes)
     /// "m/1.2^3" (contains illegal characters)
     fun getKeyByPath(path: String): HDKey {
-        var key = privateKey
+        return getKeyByPath(DerivationPath.parse(path))
+    }
 
-        var derivePath = path
-        if (derivePath == "m" || derivePath == "/" || derivePath == "") {
-            return key
+    /// Set `cacheLeaf` for a key that is requested again and again, such as the chain node whose children
+    /// are derived window by window: the key is then cached like its ancestors, together with its public
+    /// key once that has been computed.
+    fun getKeyByPath(path: DerivationPath, cacheLeaf: Boolean = false): HDKey {
+        val depth = path.depth
+        if (depth == 0) {
+            return privateKey
         }
-        if (derivePath.contains("m/")) {
-            derivePath = derivePath.drop(2)
+
+        // Start from the deepest cached node on the way to the requested key. Only the first lookup, of
+        // the key itself if it is cached as a leaf and of its parent otherwise, is counted, so every
+        // request records a single hit or miss; higher ancestors are peeked at.
+        var key = privateKey
+        var level = if (cacheLeaf) depth else depth - 1
+        if (level > 0) {
+            val cached = cache.get(path.prefix(level))
+            if (cached != null) {
+                key = cached
+            } else {
+                level--
+                while (level > 0) {
+                    val cached = cache.peek(path.prefix(level))
+                    if (cached != null) {
+                        key = cached
+                        break
+                    }
+                    level--
+                }
+            }
         }
-        for (chunk in derivePath.split("/")) {
-            var hardened = false
-            var indexText: String = chunk
-            if (chunk.contains("'")) {
-                hardened = true
-                indexText = indexText.dropLast(1)
+
+        while (level < depth) {
+            key = HDKeyDerivation.deriveChildKey(key, path.getChildNumber(level), path.isHardened(level))
+            level++
+            if (level < depth || cacheLeaf) {
+                cache.put(path.prefix(level), key)
             }
-            val index = indexText.toInt()
-            key = HDKeyDerivation.deriveChildKey(key, index, hardened)
         }
 
         return key
     }
 
     fun deriveNonHardenedChildKeys(parentPrivateKey: HDKey, indices: IntRange): List<HDKey> {
-        val keys = mutableListOf<HDKey>()
-        for (index in indices) {
-            val childHDKey = HDKeyDerivation.deriveChildKey(parentPrivateKey, index, false)
-            keys.add(childHDKey)
+        if (indices.isEmpty()) {
+            return listOf()
+        }
+        return HDKeyDerivation.deriveNonHardenedChildKeys(parentPrivateKey, indices.first, indices.last - indices.first + 1).asList()
+    }
+
+    /// Derives the same keys as `deriveNonHardenedChildKeys(parentPrivateKey, indices)`, splitting the
+    /// range across the given pool. Results are in index order. If a child index is invalid, the
+    /// HDDerivationException of the lowest such index is thrown, as in sequential derivation.
+    fun deriveNonHardenedChildKeys(parentPrivateKey: HDKey, indices: IntRange, pool: ForkJoinPool, batchSize: Int = PARALLEL_BATCH_SIZE): List<HDKey> {
+        require(batchSize > 0) { "Batch size must be positive" }
+        if (indices.isEmpty()) {
+            return listOf()
+        }
+
+        // Compute the lazy parent public key once rather than in every worker
+        parentPrivateKey.pubKey
+
+        val keys = arrayOfNulls<HDKey>(indices.last - indices.first + 1)
+        val failure = AtomicReference<DerivationFailure>()
+        pool.invoke(DeriveChildKeysTask(parentPrivateKey, indices.first, indices.last + 1, indices.first, batchSize, keys, failure))
+
+        failure.get()?.let { throw it.exception }
+
+        return keys.map { it!! }
+    }
+
+    private class DerivationFailure(val index: Int, val exception: HDDerivationException)
+
+    private class DeriveChildKeysTask(
+            private val parent: HDKey,
+            private val from: Int,
+            private val to: Int,
+            private val offset: Int,
+            private val batchSize: Int,
+            private val keys: Array<HDKey?>,
+            private val failure: AtomicReference<DerivationFailure>
+    ) : RecursiveAction() {
+
+        override fun compute() {
+            if (to - from > batchSize) {
+                val middle = (from + to) ushr 1
+                invokeAll(DeriveChildKeysTask(parent, from, middle, offset, batchSize, keys, failure),
+                        DeriveChildKeysTask(parent, middle, to, offset, batchSize, keys, failure))
+                return
+            }
+
+            try {
+                val batch = HDKeyDerivation.deriveNonHardenedChildKeys(parent, from, to - from)
+                System.arraycopy(batch, 0, keys, from - offset, batch.size)
+                return
+            } catch (e: HDDerivationException) {
+                // Fall back to one key at a time to find out which index is invalid
+            }
+
+            for (index in from until to) {
+                // A lower index has already failed, so the remaining keys are never returned
+                val failed = failure.get()
+                if (failed != null && failed.index < index) {
+                    return
+                }
+                try {
+                    keys[index - offset] = HDKeyDerivation.deriveChildKey(parent, index, false)
+                } catch (e: HDDerivationException) {
+                    val current = DerivationFailure(index, e)
+                    while (true) {
+                        val previous = failure.get()
+                        if (previous != null && previous.index < index || failure.compareAndSet(previous, current)) {
+                            break
+                        }
+                    }
+                    return
+                }
+            }
         }
-        return keys
     }
 
 }
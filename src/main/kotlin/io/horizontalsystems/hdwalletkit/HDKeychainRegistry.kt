@@ -0,0 +1,51 @@
+package io.horizontalsystems.hdwalletkit
+
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+import java.util.IdentityHashMap
+
+/// Shares one HDKeychain, and so one root key and one cache of intermediate nodes, between all wallets
+/// created from the same seed. Keychains are reference counted: `acquire` and `release` must be paired,
+/// and a keychain's cached nodes are dropped and its entry removed when the last reference is released.
+/// Seeds are identified by their SHA-256 hash, so the registry does not keep the seeds themselves.
+class HDKeychainRegistry(private val cacheSize: Int = HDKeychain.DEFAULT_CACHE_SIZE) {
+
+    companion object {
+        /// Process-wide registry
+        val shared = HDKeychainRegistry()
+    }
+
+    private class Entry(val seedHash: ByteBuffer, val keychain: HDKeychain, var references: Int)
+
+    private val entries = HashMap<ByteBuffer, Entry>()
+    private val entriesByKeychain = IdentityHashMap<HDKeychain, Entry>()
+
+    /// Number of seeds that currently have a keychain
+    val size: Int
+        get() = synchronized(entries) { entries.size }
+
+    fun acquire(seed: ByteArray): HDKeychain {
+        val seedHash = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(seed))
+        synchronized(entries) {
+            val entry = entries.getOrPut(seedHash) {
+                Entry(seedHash, HDKeychain(seed, cacheSize = cacheSize), 0).also { entriesByKeychain[it.keychain] = it }
+            }
+            entry.references++
+            return entry.keychain
+        }
+    }
+
+    fun release(keychain: HDKeychain) {
+        synchronized(entries) {
+            val entry = entriesByKeychain[keychain]
+                    ?: throw IllegalArgumentException("Keychain was not acquired from this registry")
+            entry.references--
+            if (entry.references == 0) {
+                entries.remove(entry.seedHash)
+                entriesByKeychain.remove(keychain)
+                keychain.clearCache()
+            }
+        }
+    }
+
+}
@@ -16,4 +16,11 @@ class HDPublicKey() {
         this.publicKeyHash = key.pubKeyHash
     }
 
+    constructor(index: Int, external: Boolean, publicKey: ByteArray, publicKeyHash: ByteArray) : this() {
+        this.index = index
+        this.external = external
+        this.publicKey = publicKey
+        this.publicKeyHash = publicKeyHash
+    }
+
 }
@@ -0,0 +1,41 @@
+package io.horizontalsystems.hdwalletkit
+
+/// Public keys and public key hashes of a contiguous index range, held in two flat arrays
+/// instead of one HDPublicKey per index. The key at position n has index `firstIndex + n`.
+class HDPublicKeyBatch(val firstIndex: Int, val count: Int, val external: Boolean) {
+
+    companion object {
+        const val PUBLIC_KEY_SIZE = 33
+        const val PUBLIC_KEY_HASH_SIZE = 20
+    }
+
+    init {
+        require(count >= 0) { "Count must not be negative" }
+    }
+
+    val publicKeys = ByteArray(count * PUBLIC_KEY_SIZE)
+    val publicKeyHashes = ByteArray(count * PUBLIC_KEY_HASH_SIZE)
+
+    fun index(position: Int): Int {
+        return firstIndex + position
+    }
+
+    fun publicKey(position: Int): ByteArray {
+        return publicKeys.copyOfRange(position * PUBLIC_KEY_SIZE, (position + 1) * PUBLIC_KEY_SIZE)
+    }
+
+    fun publicKeyHash(position: Int): ByteArray {
+        return publicKeyHashes.copyOfRange(position * PUBLIC_KEY_HASH_SIZE, (position + 1) * PUBLIC_KEY_HASH_SIZE)
+    }
+
+    /// Inserts every public key and public key hash, which is what a BIP 37 wallet filter matches on
+    fun insertInto(filter: BloomFilter) {
+        filter.insertAll(publicKeys, 0, count, PUBLIC_KEY_SIZE)
+        filter.insertAll(publicKeyHashes, 0, count, PUBLIC_KEY_HASH_SIZE)
+    }
+
+    fun hdPublicKey(position: Int): HDPublicKey {
+        return HDPublicKey(index(position), external, publicKey(position), publicKeyHash(position))
+    }
+
+}
@@ -0,0 +1,406 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.bouncycastle.crypto.digests.SHA256Digest
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.ClosedChannelException
+import java.nio.channels.FileChannel
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.locks.StampedLock
+import java.util.zip.CRC32
+
+/// Append-only file of derived public keys and public key hashes of one root key, keyed by derivation path.
+/// The file is memory-mapped for reads, so keys derived in an earlier run are served without EC math.
+///
+/// Format (big-endian):
+///   header: "HDPK" | u16 version | u16 reserved | root identifier (20 bytes) | u32 CRC32 of the preceding bytes
+///   record: u8 depth | depth * u32 child number (hardened flag included) | public key (33 bytes) |
+///           public key hash (20 bytes) | HMAC-SHA256 of the preceding record bytes, truncated to 16 bytes
+///
+/// The root identifier is the hash160 of the root public key. Opening an empty file writes the header; a
+/// file with any other header, version or root identifier is rejected and left untouched.
+///
+/// Keys read from the file are handed out as receive addresses, so records are authenticated rather than
+/// just checksummed: the MAC key is derived from the root private key (HDKeychain.publicKeyCacheKey), and a
+/// record cannot be forged or moved to another path without the seed. Every read checks the MAC of the record
+/// it returns, so a record modified after the file was opened is reported as missing, and its key is derived
+/// and appended again. On open the file is truncated at the first record that is incomplete or fails its MAC,
+/// which drops whatever an interrupted append left behind. Reads are lock-free; appends are serialized.
+/// Records appended after the file was mapped are read with positional reads, and the file is only remapped
+/// once that unmapped tail is as large as the mapped part, so the number of mappings, which are only released
+/// by the garbage collector, grows with the logarithm of the file size rather than with the number of appends.
+class HDPublicKeyFileCache private constructor(
+        private val channel: FileChannel,
+        rootIdentifier: ByteArray,
+        macKey: ByteArray
+) : Closeable {
+
+    companion object {
+        const val VERSION = 2
+
+        private val MAGIC = "HDPK".toByteArray(Charsets.US_ASCII)
+        private const val HEADER_SIZE = 32
+        private const val ROOT_IDENTIFIER_SIZE = 20
+        private const val KEY_SIZE = HDPublicKeyBatch.PUBLIC_KEY_SIZE + HDPublicKeyBatch.PUBLIC_KEY_HASH_SIZE
+        private const val MAC_SIZE = 16
+        /// Public key, hash and MAC as they follow the child numbers of a record
+        private const val ENTRY_SIZE = KEY_SIZE + MAC_SIZE
+        private const val MIN_REMAP_SIZE = 64 * 1024
+
+        /// Opens the cache file of the keychain's root key, writing the header if the file is empty.
+        /// Throws IllegalArgumentException if the file is not an empty file or a cache of that root key.
+        fun open(file: File, keychain: HDKeychain): HDPublicKeyFileCache {
+            val channel = RandomAccessFile(file, "rw").channel
+            val macKey = keychain.publicKeyCacheKey
+            try {
+                val cache = HDPublicKeyFileCache(channel, keychain.rootIdentifier, macKey)
+                cache.load()
+                return cache
+            } catch (e: Exception) {
+                channel.close()
+                throw e
+            } finally {
+                macKey.fill(0)
+            }
+        }
+
+        private fun recordSize(depth: Int): Int {
+            return 1 + 4 * depth + KEY_SIZE + MAC_SIZE
+        }
+    }
+
+    val rootIdentifier: ByteArray = rootIdentifier.copyOf()
+
+    /// SHA-256 states after absorbing key ^ ipad and key ^ opad (RFC 2104), set by HMacKey. They are only ever copied,
+    /// so records are authenticated without locking; close() clears them under the write lock of `macLock`, and a
+    /// copy taken while it did is discarded.
+    private val innerMacState = SHA256Digest()
+    private val outerMacState = SHA256Digest()
+    private val macLock = StampedLock()
+
+    @Volatile
+    private var closed = false
+
+    init {
+        HMacKey.initStates(macKey, innerMacState, outerMacState, ByteArray(2 * innerMacState.byteLength))
+    }
+
+    /// Offset of the public key of each path within the file
+    private val offsets = ConcurrentHashMap<DerivationPath, Int>()
+
+    /// Mapping of the start of the file; records past its end are read from the channel
+    @Volatile
+    private var mapped: ByteBuffer = ByteBuffer.allocate(0)
+
+    private var end = 0L
+    private val appendLock = Any()
+
+    val size: Int
+        get() = offsets.size
+
+    fun contains(path: DerivationPath): Boolean {
+        return !closed && offsets.containsKey(path)
+    }
+
+    fun getPublicKey(path: DerivationPath): ByteArray? {
+        return readRecord(path)?.copyOf(HDPublicKeyBatch.PUBLIC_KEY_SIZE)
+    }
+
+    fun getPublicKeyHash(path: DerivationPath): ByteArray? {
+        return readRecord(path)?.copyOfRange(HDPublicKeyBatch.PUBLIC_KEY_SIZE, KEY_SIZE)
+    }
+
+    /// Copies the cached keys of children `firstIndex until firstIndex + count` of `parent` into the buffers, laid
+    /// out as by HDWallet.writePublicKeys, and marks each copied key in `found`. Keys that are missing or fail
+    /// authentication are left unwritten and unmarked, so the caller derives only those. Every record is copied
+    /// and authenticated once. Returns the number of keys found.
+    fun readAll(parent: DerivationPath, firstIndex: Int, count: Int, publicKeys: ByteArray, publicKeysOffset: Int, publicKeyHashes: ByteArray?, publicKeyHashesOffset: Int, found: BooleanArray): Int {
+        require(found.size >= count) { "Found flags must cover every key" }
+        val entry = ByteArray(ENTRY_SIZE)
+        var foundCount = 0
+        for (n in 0 until count) {
+            found[n] = readEntry(parent.child(firstIndex + n, false), entry)
+            if (!found[n]) {
+                continue
+            }
+            System.arraycopy(entry, 0, publicKeys, publicKeysOffset + n * HDPublicKeyBatch.PUBLIC_KEY_SIZE, HDPublicKeyBatch.PUBLIC_KEY_SIZE)
+            if (publicKeyHashes != null) {
+                System.arraycopy(entry, HDPublicKeyBatch.PUBLIC_KEY_SIZE, publicKeyHashes,
+                        publicKeyHashesOffset + n * HDPublicKeyBatch.PUBLIC_KEY_HASH_SIZE, HDPublicKeyBatch.PUBLIC_KEY_HASH_SIZE)
+            }
+            foundCount++
+        }
+        entry.fill(0)
+        return foundCount
+    }
+
+    fun put(path: DerivationPath, publicKey: ByteArray, publicKeyHash: ByteArray) {
+        require(publicKey.size == HDPublicKeyBatch.PUBLIC_KEY_SIZE) { "Public key must be 33 bytes" }
+        require(publicKeyHash.size == HDPublicKeyBatch.PUBLIC_KEY_HASH_SIZE) { "Public key hash must be 20 bytes" }
+        append(listOf(path), publicKey, 0, publicKeyHash, 0)
+    }
+
+    /// Appends the keys of children `firstIndex until firstIndex + count` of `parent`, laid out as by
+    /// HDWallet.writePublicKeys, in a single write. Keys that are already cached are skipped.
+    fun putAll(parent: DerivationPath, firstIndex: Int, count: Int, publicKeys: ByteArray, publicKeysOffset: Int, publicKeyHashes: ByteArray, publicKeyHashesOffset: Int) {
+        val paths = List(count) { parent.child(firstIndex + it, false) }
+        append(paths, publicKeys, publicKeysOffset, publicKeyHashes, publicKeyHashesOffset)
+    }
+
+    /// Forces appended records to the storage device
+    fun flush() {
+        channel.force(false)
+    }
+
+    /// Closes the file and clears the MAC key states, after which every lookup misses and appends throw
+    /// IllegalStateException. Lookups that are in progress while the cache closes miss as well.
+    override fun close() {
+        synchronized(appendLock) {
+            if (closed) {
+                return
+            }
+            val stamp = macLock.writeLock()
+            try {
+                closed = true
+                innerMacState.reset()
+                outerMacState.reset()
+            } finally {
+                macLock.unlockWrite(stamp)
+            }
+            channel.use { it.force(true) }
+        }
+    }
+
+    private fun append(paths: List<DerivationPath>, publicKeys: ByteArray, publicKeysOffset: Int, publicKeyHashes: ByteArray, publicKeyHashesOffset: Int) {
+        synchronized(appendLock) {
+            check(!closed) { "Cache is closed" }
+            var length = 0
+            for (path in paths) {
+                if (!offsets.containsKey(path)) {
+                    length += recordSize(path.depth)
+                }
+            }
+            if (length == 0) {
+                return
+            }
+            check(end + length <= Int.MAX_VALUE) { "Cache file is full" }
+
+            val records = ByteBuffer.allocate(length)
+            val added = mutableListOf<Pair<DerivationPath, Int>>()
+            val mac = ByteArray(outerMacState.digestSize)
+            paths.forEachIndexed { n, path ->
+                if (offsets.containsKey(path)) {
+                    return@forEachIndexed
+                }
+                records.put(path.depth.toByte())
+                for (level in 0 until path.depth) {
+                    records.putInt(path.get(level))
+                }
+                val keyStart = records.position()
+                added.add(path to (end + keyStart).toInt())
+                records.put(publicKeys, publicKeysOffset + n * HDPublicKeyBatch.PUBLIC_KEY_SIZE, HDPublicKeyBatch.PUBLIC_KEY_SIZE)
+                records.put(publicKeyHashes, publicKeyHashesOffset + n * HDPublicKeyBatch.PUBLIC_KEY_HASH_SIZE, HDPublicKeyBatch.PUBLIC_KEY_HASH_SIZE)
+                // Appends and close() hold appendLock, so the MAC states are intact here
+                check(mac(path, records.array(), keyStart, mac))
+                records.put(mac, 0, MAC_SIZE)
+            }
+
+            records.flip()
+            var position = end
+            while (records.hasRemaining()) {
+                position += channel.write(records, position)
+            }
+            end = position
+
+            // The records are written before their offsets are published, so a reader that finds an offset
+            // also finds its record, either in the mapping or through the channel
+            val mappedSize = mapped.capacity()
+            if (end - mappedSize >= maxOf(mappedSize, MIN_REMAP_SIZE)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, end)
+            }
+            for ((path, offset) in added) {
+                offsets[path] = offset
+            }
+        }
+    }
+
+    private fun load() {
+        val size = channel.size()
+        if (size == 0L) {
+            writeHeader()
+            return
+        }
+        val header = ByteBuffer.allocate(minOf(size, HEADER_SIZE.toLong()).toInt())
+        while (header.hasRemaining()) {
+            check(channel.read(header, header.position().toLong()) >= 0) { "Cache file is truncated" }
+        }
+        checkHeader(header.array())
+        require(header.array().copyOfRange(8, 8 + ROOT_IDENTIFIER_SIZE).contentEquals(rootIdentifier)) {
+            "Cache file belongs to a different root key"
+        }
+
+        check(size <= Int.MAX_VALUE) { "Cache file is too large" }
+        val buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+        val scratch = ByteArray(recordSize(255))
+        var position = HEADER_SIZE
+        while (position < size) {
+            val depth = buffer.get(position).toInt() and 0xFF
+            val recordSize = recordSize(depth)
+            if (position + recordSize > size) {
+                break
+            }
+            for (i in 0 until recordSize) {
+                scratch[i] = buffer.get(position + i)
+            }
+            var path = DerivationPath.ROOT
+            for (level in 0 until depth) {
+                val childNumber = buffer.getInt(position + 1 + 4 * level)
+                path = path.child(childNumber and HDKey.HARDENED_FLAG.inv(), (childNumber and HDKey.HARDENED_FLAG) != 0)
+            }
+            if (authenticate(path, scratch, 1 + 4 * depth) != true) {
+                break
+            }
+            offsets[path] = position + 1 + 4 * depth
+            position += recordSize
+        }
+
+        end = position.toLong()
+        if (position < size) {
+            channel.truncate(end)
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, end)
+        } else {
+            mapped = buffer
+        }
+    }
+
+    private fun checkHeader(header: ByteArray) {
+        require(header.size >= 4 && header.copyOfRange(0, 4).contentEquals(MAGIC)) { "Not a public key cache file" }
+        require(header.size == HEADER_SIZE) { "Cache file header is incomplete" }
+        val version = ((header[4].toInt() and 0xFF) shl 8) or (header[5].toInt() and 0xFF)
+        require(version == VERSION) { "Unsupported cache file version: $version" }
+        val crc = CRC32()
+        crc.update(header, 0, HEADER_SIZE - 4)
+        require(ByteBuffer.wrap(header).getInt(HEADER_SIZE - 4) == crc.value.toInt()) { "Cache file header is corrupt" }
+    }
+
+    private fun writeHeader() {
+        val header = ByteBuffer.allocate(HEADER_SIZE)
+        header.put(MAGIC)
+        header.putShort(VERSION.toShort())
+        header.putShort(0)
+        header.put(rootIdentifier)
+        val crc = CRC32()
+        crc.update(header.array(), 0, HEADER_SIZE - 4)
+        header.putInt(crc.value.toInt())
+        header.flip()
+
+        var position = 0L
+        while (header.hasRemaining()) {
+            position += channel.write(header, position)
+        }
+        end = position
+        mapped = ByteBuffer.allocate(0)
+    }
+
+    /// Public key, hash and MAC of the path, or null if the path is not cached, its record fails
+    /// authentication or the cache is closed
+    private fun readRecord(path: DerivationPath): ByteArray? {
+        val entry = ByteArray(ENTRY_SIZE)
+        return if (readEntry(path, entry)) entry else null
+    }
+
+    /// Copies the public key, hash and MAC of the path into `entry` and checks the MAC. Returns false if the path
+    /// is not cached, its record fails authentication or the cache is closed. A record that fails is forgotten,
+    /// so the key is derived and appended again.
+    private fun readEntry(path: DerivationPath, entry: ByteArray): Boolean {
+        if (closed) {
+            return false
+        }
+        val offset = offsets[path] ?: return false
+        if (!copy(mapped, offset, entry, 0, ENTRY_SIZE)) {
+            return false
+        }
+        return when (authenticate(path, entry, 0)) {
+            true -> true
+            false -> {
+                offsets.remove(path, offset)
+                false
+            }
+            null -> false
+        }
+    }
+
+    /// Checks the MAC that follows the public key and hash at `offset` of `bytes` against the record of the path.
+    /// Returns null if the cache was closed before the record could be checked.
+    private fun authenticate(path: DerivationPath, bytes: ByteArray, offset: Int): Boolean? {
+        val mac = ByteArray(outerMacState.digestSize)
+        if (!mac(path, bytes, offset, mac)) {
+            return null
+        }
+        // Compares every byte, so the time taken does not reveal how much of the MAC matched
+        var difference = 0
+        for (i in 0 until MAC_SIZE) {
+            difference = difference or (mac[i].toInt() xor bytes[offset + KEY_SIZE + i].toInt())
+        }
+        return difference == 0
+    }
+
+    /// HMAC-SHA256 of the record of the path whose public key and hash are at `offset` of `bytes`:
+    /// depth, child numbers, public key and public key hash, as they are laid out in the file.
+    /// Returns false without computing it if the cache is closed.
+    private fun mac(path: DerivationPath, bytes: ByteArray, offset: Int, out: ByteArray): Boolean {
+        val stamp = macLock.tryOptimisticRead()
+        if (closed) {
+            return false
+        }
+        val inner = SHA256Digest(innerMacState)
+        val outer = SHA256Digest(outerMacState)
+        // The copies are garbage if close() cleared the states meanwhile
+        if (!macLock.validate(stamp)) {
+            return false
+        }
+        inner.update(path.depth.toByte())
+        for (level in 0 until path.depth) {
+            val childNumber = path.get(level)
+            inner.update((childNumber ushr 24).toByte())
+            inner.update((childNumber ushr 16).toByte())
+            inner.update((childNumber ushr 8).toByte())
+            inner.update(childNumber.toByte())
+        }
+        inner.update(bytes, offset, KEY_SIZE)
+        inner.doFinal(out, 0)
+        outer.update(out, 0, inner.digestSize)
+        outer.doFinal(out, 0)
+        return true
+    }
+
+    /// Copies a record part from the mapping or, past its end, from the channel. Returns false if the
+    /// cache was closed meanwhile.
+    private fun copy(buffer: ByteBuffer, offset: Int, out: ByteArray, outOffset: Int, length: Int): Boolean {
+        if (offset + length <= buffer.capacity()) {
+            for (i in 0 until length) {
+                out[outOffset + i] = buffer.get(offset + i)
+            }
+            return true
+        }
+        // Positional reads do not move the channel position, so they are safe from any thread
+        val target = ByteBuffer.wrap(out, outOffset, length)
+        var position = offset.toLong()
+        try {
+            while (target.hasRemaining()) {
+                val read = channel.read(target, position)
+                check(read >= 0) { "Cache file is truncated" }
+                position += read
+            }
+        } catch (e: ClosedChannelException) {
+            if (closed) {
+                return false
+            }
+            throw e
+        }
+        return true
+    }
+
+}
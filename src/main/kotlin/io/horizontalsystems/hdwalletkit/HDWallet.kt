@@ -1,6 +1,49 @@
 package io.horizontalsystems.hdwalletkit
 
-class HDWallet(seed: ByteArray, private val coinType: Int, val gapLimit: Int = 20, purpose: Purpose = Purpose.BIP44) {
+import java.io.Closeable
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.atomic.AtomicReference
+
+/// If a `publicKeyCache` is given, public keys are looked up there first and every derived public key is appended to it.
+/// A wallet created with an HDKeychainRegistry shares its keychain with the other wallets of the same seed and
+/// must be closed to release it.
+class HDWallet(
+        private val hdKeychain: HDKeychain,
+        private val coinType: Int,
+        val gapLimit: Int = 20,
+        val purpose: Purpose = Purpose.BIP44,
+        private val publicKeyCache: HDPublicKeyFileCache? = null
+) : Closeable {
+
+    constructor(seed: ByteArray, coinType: Int, gapLimit: Int = 20, purpose: Purpose = Purpose.BIP44, publicKeyCache: HDPublicKeyFileCache? = null) : this(HDKeychain(seed), coinType, gapLimit, purpose, publicKeyCache)
+
+    constructor(seed: ByteArray, coinType: Int, registry: HDKeychainRegistry, gapLimit: Int = 20, purpose: Purpose = Purpose.BIP44, publicKeyCache: HDPublicKeyFileCache? = null) : this(acquireKeychain(registry, seed, coinType, publicKeyCache), coinType, gapLimit, purpose, publicKeyCache) {
+        this.registry.set(registry)
+    }
+
+    companion object {
+        const val SEQUENCE_BATCH_SIZE = 64
+
+        /// Acquires the keychain of the seed and checks the wallet arguments against it. If they are invalid the
+        /// keychain is released again, as the wallet that would release it on close is never constructed.
+        private fun acquireKeychain(registry: HDKeychainRegistry, seed: ByteArray, coinType: Int, publicKeyCache: HDPublicKeyFileCache?): HDKeychain {
+            val keychain = registry.acquire(seed)
+            try {
+                checkArguments(keychain, coinType, publicKeyCache)
+            } catch (e: RuntimeException) {
+                registry.release(keychain)
+                throw e
+            }
+            return keychain
+        }
+
+        private fun checkArguments(keychain: HDKeychain, coinType: Int, publicKeyCache: HDPublicKeyFileCache?) {
+            require((coinType and HDKey.HARDENED_FLAG) == 0) { "Coin type must not be negative" }
+            if (publicKeyCache != null) {
+                require(publicKeyCache.rootIdentifier.contentEquals(keychain.rootIdentifier)) { "Public key cache belongs to a different seed" }
+            }
+        }
+    }
 
     enum class Chain {
         EXTERNAL, INTERNAL
@@ -12,14 +55,12 @@ class HDWallet(seed: ByteArray, private val coinType: Int, val gapLimit: Int = 2
         BIP84(84)
     }
 
-    private val hdKeychain: HDKeychain = HDKeychain(seed)
-
     // m / purpose' / coin_type' / account' / change / address_index
     //
     // Purpose is a constant set to 44' (or 0x8000002C) following the BIP43 recommendation.
     // It indicates that the subtree of this node is used according to this specification.
     // Hardened derivation is used at this level.
-    private val purpose: Int = purpose.value
+    private val purposeValue: Int = purpose.value
 
     // One master node (seed) can be used for unlimited number of independent cryptocoins such as Bitcoin, Litecoin or Namecoin. However, sharing the same space for various cryptocoins has some disadvantages.
     // This level creates a separate subtree for every cryptocoin, avoiding reusing addresses across cryptocoins and improving privacy issues.
@@ -29,12 +70,29 @@ class HDWallet(seed: ByteArray, private val coinType: Int, val gapLimit: Int = 2
     // network.name == MainNet().name ? 0 : 1
     // private var coinType: Int = 0
 
+    /// Registry the keychain was acquired from, until the wallet is closed
+    private val registry = AtomicReference<HDKeychainRegistry>()
+
+    init {
+        checkArguments(hdKeychain, coinType, publicKeyCache)
+    }
+
+    // m / purpose' / coin_type'
+    private val coinTypePath: DerivationPath = DerivationPath.ROOT.child(purposeValue, true).child(coinType, true)
+
     fun hdPublicKey(account: Int, index: Int, external: Boolean): HDPublicKey {
+        if (publicKeyCache != null) {
+            return hdPublicKeyBatch(account, index..index, external).hdPublicKey(0)
+        }
         return HDPublicKey(index = index, external = external, key = privateKey(account = account, index = index, chain = if (external) 0 else 1))
     }
 
     fun hdPublicKeys(account: Int, indices: IntRange, external: Boolean): List<HDPublicKey> {
-        val parentPrivateKey = privateKey("m/$purpose'/$coinType'/$account'/${if (external) 0 else 1}")
+        if (publicKeyCache != null) {
+            val batch = hdPublicKeyBatch(account, indices, external)
+            return List(batch.count) { batch.hdPublicKey(it) }
+        }
+        val parentPrivateKey = chainKey(chainPath(account, if (external) 0 else 1))
         return hdKeychain
                 .deriveNonHardenedChildKeys(parentPrivateKey, indices)
                 .map {
@@ -42,24 +100,172 @@ class HDWallet(seed: ByteArray, private val coinType: Int, val gapLimit: Int = 2
                 }
     }
 
+    /// Derives on the pool. If a public key cache is given, only the keys missing from it are derived.
+    fun hdPublicKeys(account: Int, indices: IntRange, external: Boolean, pool: ForkJoinPool): List<HDPublicKey> {
+        if (publicKeyCache != null) {
+            return cachedHDPublicKeys(publicKeyCache, account, indices, external) { parent, range ->
+                hdKeychain.deriveNonHardenedChildKeys(parent, range, pool)
+            }
+        }
+        val parentPrivateKey = chainKey(chainPath(account, if (external) 0 else 1))
+        return hdKeychain
+                .deriveNonHardenedChildKeys(parentPrivateKey, indices, pool)
+                .map {
+                    HDPublicKey(it.childNumber, external, it)
+                }
+    }
+
+    /// Lazily derives public keys index by index. Keys are derived in batches of `batchSize`, and
+    /// only the current batch is held in memory, so the sequence can run over millions of indices.
+    /// If a public key cache is given, each batch is served from it and only missing keys are derived.
+    fun hdPublicKeySequence(account: Int, external: Boolean, indices: IntRange = 0..Int.MAX_VALUE, batchSize: Int = SEQUENCE_BATCH_SIZE): Sequence<HDPublicKey> {
+        require(batchSize > 0) { "Batch size must be positive" }
+        return sequence {
+            if (indices.isEmpty()) {
+                return@sequence
+            }
+            val parentPrivateKey by lazy(LazyThreadSafetyMode.NONE) { chainKey(chainPath(account, if (external) 0 else 1)) }
+            var from = indices.first
+            while (true) {
+                val to = if (indices.last - from < batchSize) indices.last else from + batchSize - 1
+                if (publicKeyCache != null) {
+                    yieldAll(cachedHDPublicKeys(publicKeyCache, account, from..to, external) { parent, range ->
+                        hdKeychain.deriveNonHardenedChildKeys(parent, range)
+                    })
+                } else {
+                    for (key in hdKeychain.deriveNonHardenedChildKeys(parentPrivateKey, from..to)) {
+                        yield(HDPublicKey(key.childNumber, external, key))
+                    }
+                }
+                if (to == indices.last) {
+                    break
+                }
+                from = to + 1
+            }
+        }
+    }
+
+    /// Derives public keys and their hashes into flat arrays without creating an HDKey or HDPublicKey per index
+    fun hdPublicKeyBatch(account: Int, indices: IntRange, external: Boolean): HDPublicKeyBatch {
+        val count = indices.last.toLong() - indices.first + 1
+        require(count <= Int.MAX_VALUE / HDPublicKeyBatch.PUBLIC_KEY_SIZE) { "Index range is too large" }
+        val batch = HDPublicKeyBatch(indices.first, maxOf(count, 0).toInt(), external)
+        writePublicKeys(account, indices, external, batch.publicKeys, 0, batch.publicKeyHashes, 0)
+        return batch
+    }
+
+    /// Writes the 33-byte public keys and 20-byte public key hashes of `indices` back to back into
+    /// the given buffers. `publicKeyHashes` may be null if only the public keys are needed.
+    fun writePublicKeys(account: Int, indices: IntRange, external: Boolean, publicKeys: ByteArray, publicKeysOffset: Int, publicKeyHashes: ByteArray?, publicKeyHashesOffset: Int) {
+        if (indices.isEmpty()) {
+            return
+        }
+        val parentPath = chainPath(account, if (external) 0 else 1)
+        val count = indices.last - indices.first + 1
+        if (publicKeyCache == null) {
+            HDKeyDerivation.deriveNonHardenedPublicKeys(chainKey(parentPath), indices.first, count,
+                    publicKeys, publicKeysOffset, publicKeyHashes, publicKeyHashesOffset)
+            return
+        }
+
+        val found = BooleanArray(count)
+        if (publicKeyCache.readAll(parentPath, indices.first, count, publicKeys, publicKeysOffset, publicKeyHashes, publicKeyHashesOffset, found) == count) {
+            return
+        }
+        // The cache stores hashes too, so compute them even if the caller does not need them
+        val hashes = publicKeyHashes ?: ByteArray(count * HDPublicKeyBatch.PUBLIC_KEY_HASH_SIZE)
+        val hashesOffset = if (publicKeyHashes != null) publicKeyHashesOffset else 0
+        val parentPrivateKey = chainKey(parentPath)
+        forEachMissingRun(found) { start, runCount ->
+            val keysOffset = publicKeysOffset + start * HDPublicKeyBatch.PUBLIC_KEY_SIZE
+            val runHashesOffset = hashesOffset + start * HDPublicKeyBatch.PUBLIC_KEY_HASH_SIZE
+            HDKeyDerivation.deriveNonHardenedPublicKeys(parentPrivateKey, indices.first + start, runCount,
+                    publicKeys, keysOffset, hashes, runHashesOffset)
+            publicKeyCache.putAll(parentPath, indices.first + start, runCount, publicKeys, keysOffset, hashes, runHashesOffset)
+        }
+    }
+
     fun receiveHDPublicKey(account: Int, index: Int): HDPublicKey {
-        return HDPublicKey(index = index, external = true, key = privateKey(account = account, index = index, chain = 0))
+        return hdPublicKey(account, index, true)
     }
 
     fun changeHDPublicKey(account: Int, index: Int): HDPublicKey {
-        return HDPublicKey(index = index, external = false, key = privateKey(account = account, index = index, chain = 1))
+        return hdPublicKey(account, index, false)
     }
 
     fun privateKey(account: Int, index: Int, chain: Int): HDKey {
-        return privateKey(path = "m/$purpose'/$coinType'/$account'/$chain/$index")
+        return privateKey(path = chainPath(account, chain).child(index, false))
     }
 
     fun privateKey(account: Int, index: Int, external: Boolean): HDKey {
         return privateKey(account, index, if (external) Chain.EXTERNAL.ordinal else Chain.INTERNAL.ordinal)
     }
 
-    private fun privateKey(path: String): HDKey {
+    fun privateKey(path: DerivationPath): HDKey {
         return hdKeychain.getKeyByPath(path)
     }
 
+    /// Releases the shared keychain if the wallet was created with a registry. Closing twice has no effect.
+    override fun close() {
+        registry.getAndSet(null)?.release(hdKeychain)
+    }
+
+    /// Serves the keys of `indices` from the cache, deriving each run of missing indices with `derive`
+    /// and appending the derived keys to the cache
+    private fun cachedHDPublicKeys(cache: HDPublicKeyFileCache, account: Int, indices: IntRange, external: Boolean, derive: (HDKey, IntRange) -> List<HDKey>): List<HDPublicKey> {
+        if (indices.isEmpty()) {
+            return listOf()
+        }
+        val parentPath = chainPath(account, if (external) 0 else 1)
+        val count = indices.last - indices.first + 1
+        val publicKeys = ByteArray(count * HDPublicKeyBatch.PUBLIC_KEY_SIZE)
+        val publicKeyHashes = ByteArray(count * HDPublicKeyBatch.PUBLIC_KEY_HASH_SIZE)
+        val found = BooleanArray(count)
+        cache.readAll(parentPath, indices.first, count, publicKeys, 0, publicKeyHashes, 0, found)
+
+        val keys = arrayOfNulls<HDPublicKey>(count)
+        val parentPrivateKey by lazy(LazyThreadSafetyMode.NONE) { chainKey(parentPath) }
+        forEachMissingRun(found) { start, runCount ->
+            derive(parentPrivateKey, (indices.first + start)..(indices.first + start + runCount - 1)).forEachIndexed { n, key ->
+                val publicKey = HDPublicKey(key.childNumber, external, key)
+                keys[start + n] = publicKey
+                System.arraycopy(publicKey.publicKey, 0, publicKeys, (start + n) * HDPublicKeyBatch.PUBLIC_KEY_SIZE, HDPublicKeyBatch.PUBLIC_KEY_SIZE)
+                System.arraycopy(publicKey.publicKeyHash, 0, publicKeyHashes, (start + n) * HDPublicKeyBatch.PUBLIC_KEY_HASH_SIZE, HDPublicKeyBatch.PUBLIC_KEY_HASH_SIZE)
+            }
+            cache.putAll(parentPath, indices.first + start, runCount, publicKeys, start * HDPublicKeyBatch.PUBLIC_KEY_SIZE,
+                    publicKeyHashes, start * HDPublicKeyBatch.PUBLIC_KEY_HASH_SIZE)
+        }
+        return List(count) { n ->
+            keys[n] ?: HDPublicKey(indices.first + n, external,
+                    publicKeys.copyOfRange(n * HDPublicKeyBatch.PUBLIC_KEY_SIZE, (n + 1) * HDPublicKeyBatch.PUBLIC_KEY_SIZE),
+                    publicKeyHashes.copyOfRange(n * HDPublicKeyBatch.PUBLIC_KEY_HASH_SIZE, (n + 1) * HDPublicKeyBatch.PUBLIC_KEY_HASH_SIZE))
+        }
+    }
+
+    /// Calls `action` with the start and length of every run of positions that `found` does not mark
+    private inline fun forEachMissingRun(found: BooleanArray, action: (Int, Int) -> Unit) {
+        var start = 0
+        while (start < found.size) {
+            if (found[start]) {
+                start++
+                continue
+            }
+            var end = start
+            while (end < found.size && !found[end]) {
+                end++
+            }
+            action(start, end - start)
+            start = end
+        }
+    }
+
+    /// Chain nodes are requested for every batch of their children, so they are kept in the keychain cache
+    private fun chainKey(chainPath: DerivationPath): HDKey {
+        return hdKeychain.getKeyByPath(chainPath, cacheLeaf = true)
+    }
+
+    private fun chainPath(account: Int, chain: Int): DerivationPath {
+        return coinTypePath.child(account, true).child(chain, false)
+    }
+
 }
@@ -0,0 +1,112 @@
+package io.horizontalsystems.hdwalletkit
+
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.Future
+import java.util.concurrent.atomic.AtomicInteger
+
+/// Restores the used accounts of a seed for several purposes at once.
+/// Every (purpose, account, chain) scan runs as a separate task on `executor`; all wallets share one
+/// HDKeychain, so the root and the purpose nodes are derived once. Following BIP44 account discovery,
+/// account n + 1 of a purpose is only scanned if the external chain of account n turned out to be used,
+/// and an account whose external chain is unused is not returned even if its internal chain is.
+/// `parallelism` is the number of threads the executor can run at once. While fewer scans run, each scan
+/// derives its next windows on the spare threads, so a wallet with one busy chain still keeps them all working.
+/// Tasks never wait for a queued task, so any executor, including a small fixed pool, can be shared.
+class HDWalletRestorer(
+        private val hdKeychain: HDKeychain,
+        private val coinType: Int,
+        private val lookup: HDAccountDiscovery.KeyUsageLookup,
+        private val executor: Executor,
+        private val gapLimit: Int = 20,
+        private val purposes: List<HDWallet.Purpose> = HDWallet.Purpose.values().toList(),
+        private val parallelism: Int = Runtime.getRuntime().availableProcessors()
+) {
+
+    constructor(
+            seed: ByteArray,
+            coinType: Int,
+            lookup: HDAccountDiscovery.KeyUsageLookup,
+            executor: Executor,
+            gapLimit: Int = 20,
+            purposes: List<HDWallet.Purpose> = HDWallet.Purpose.values().toList(),
+            parallelism: Int = Runtime.getRuntime().availableProcessors()
+    ) : this(HDKeychain(seed), coinType, lookup, executor, gapLimit, purposes, parallelism)
+
+    init {
+        require(parallelism > 0) { "Parallelism must be positive" }
+    }
+
+    private class ChainScan(val purpose: HDWallet.Purpose, val account: Int, val external: Boolean, val result: HDAccountDiscovery.ChainResult)
+
+    /// Returns the used accounts of every purpose, in account order. An account counts as used if its external chain is.
+    /// Scans still running when restore fails or is interrupted are cancelled. Like the blocking methods of the JDK,
+    /// an interrupt is reported by throwing InterruptedException with the interrupt flag of the thread cleared.
+    fun restore(): Map<HDWallet.Purpose, List<HDAccountDiscovery.AccountResult>> {
+        // Chain scans running on the executor; the threads they leave free are split between them for prefetching
+        val activeScans = AtomicInteger()
+        val prefetchWindows = { maxOf(parallelism / maxOf(activeScans.get(), 1) - 1, 0) }
+        val discoveries = purposes.associateWith {
+            HDAccountDiscovery(HDWallet(hdKeychain, coinType, gapLimit, it), lookup, executor, gapLimit, gapLimit, prefetchWindows)
+        }
+        val results = purposes.associateWith { mutableListOf<HDAccountDiscovery.AccountResult>() }
+
+        val completion = ExecutorCompletionService<ChainScan>(executor)
+        val futures = mutableListOf<Future<ChainScan>>()
+        val halfScanned = mutableMapOf<Pair<HDWallet.Purpose, Int>, ChainScan>()
+        var running = 0
+
+        fun scanAccount(purpose: HDWallet.Purpose, account: Int) {
+            val discovery = discoveries.getValue(purpose)
+            for (external in listOf(true, false)) {
+                futures.add(completion.submit {
+                    activeScans.incrementAndGet()
+                    try {
+                        ChainScan(purpose, account, external, discovery.discover(account, external))
+                    } finally {
+                        activeScans.decrementAndGet()
+                    }
+                })
+                running++
+            }
+        }
+
+        // Derive m/purpose'/coin_type' up front so that the chain tasks find them in the cache
+        for (purpose in purposes) {
+            hdKeychain.getKeyByPath(DerivationPath.ROOT.child(purpose.value, true).child(coinType, true))
+        }
+
+        purposes.forEach { scanAccount(it, 0) }
+
+        try {
+            while (running > 0) {
+                val scan = completion.take().get()
+                running--
+
+                val other = halfScanned.remove(scan.purpose to scan.account)
+                if (other == null) {
+                    halfScanned[scan.purpose to scan.account] = scan
+                    continue
+                }
+
+                val external = if (scan.external) scan else other
+                val internal = if (scan.external) other else scan
+                val account = HDAccountDiscovery.AccountResult(scan.account, external.result, internal.result)
+                // BIP44: if no transactions are found on the external chain, stop discovery
+                if (account.external.isUsed) {
+                    results.getValue(scan.purpose).add(account)
+                    scanAccount(scan.purpose, scan.account + 1)
+                }
+            }
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        } finally {
+            // No-op for completed scans; stops the ones still deriving keys on the executor
+            futures.forEach { it.cancel(true) }
+        }
+
+        return results
+    }
+
+}
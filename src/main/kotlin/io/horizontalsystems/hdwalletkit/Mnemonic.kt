@@ -1,9 +1,9 @@
 package io.horizontalsystems.hdwalletkit
-import java.security.MessageDigest
-import java.security.NoSuchAlgorithmException
 import java.security.SecureRandom
-import kotlin.experimental.and
-import kotlin.experimental.or
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.ForkJoinPool
 
 class Mnemonic {
 
@@ -36,34 +36,17 @@ class Mnemonic {
 
         // We take initial entropy of ENT bits and compute its
         // checksum by taking first ENT / 32 bits of its SHA256 hash.
-
-        val hashed = hash(entropy, 0, entropy.size)
-        val hashBits = bytesToBits(hashed)
-
-        val entropyBits = bytesToBits(entropy)
-        val checksumLengthBits = entropyBits.size / 32
-
         // We append these bits to the end of the initial entropy.
-        val concatBits = BooleanArray(entropyBits.size + checksumLengthBits)
-        System.arraycopy(entropyBits, 0, concatBits, 0, entropyBits.size)
-        System.arraycopy(hashBits, 0, concatBits, entropyBits.size, checksumLengthBits)
-
         // Next we take these concatenated bits and split them into
         // groups of 11 bits. Each group encodes number from 0-2047
         // which is a position in a wordlist.  We convert numbers into
         // words and use joined words as mnemonic sentence.
 
-        val wordList = WordList.getWords()
-        val words = ArrayList<String>()
-        val nwords = concatBits.size / 11
-        for (i in 0 until nwords) {
-            var index = 0
-            for (j in 0..10) {
-                index = index shl 1
-                if (concatBits[i * 11 + j])
-                    index = index or 0x1
-            }
-            words.add(wordList[index])
+        val indices = MnemonicCodec.encode(entropy)
+        val wordTable = WordTable.english
+        val words = ArrayList<String>(indices.size)
+        for (index in indices) {
+            words.add(wordTable.word(index))
         }
 
         return words
@@ -71,7 +54,10 @@ class Mnemonic {
 
 
     /**
-     * Convert mnemonic keys to seed
+     * Convert mnemonic keys to seed. The words and the passphrase are used as given, without the
+     * NFKD normalization of BIP39, so seeds of wallets created by earlier versions stay the same.
+     * The result differs from [toNormalizedSeed] only for a passphrase that is not in NFKD form,
+     * such as one with precomposed accented letters.
      */
     fun toSeed(mnemonicKeys: List<String>, passphrase: String = ""): ByteArray {
 
@@ -90,6 +76,59 @@ class Mnemonic {
         return PBKDF2SHA512.derive(pass, salt, PBKDF2_ROUNDS, 64)
     }
 
+    /**
+     * Convert mnemonic keys to seed as specified by BIP39, with the words and the passphrase
+     * normalized to NFKD first. Use this for wallets that must match other BIP39 implementations
+     * when the passphrase has non-ASCII characters. Words are validated in their normalized
+     * form, so the phrase that is checked is the phrase that is hashed.
+     */
+    fun toNormalizedSeed(mnemonicKeys: List<String>, passphrase: String = ""): ByteArray {
+        return normalizedSeed(mnemonicKeys, WordTable.normalize(passphrase))
+    }
+
+    private fun normalizedSeed(mnemonicKeys: List<String>, normalizedPassphrase: String): ByteArray {
+
+        val normalizedKeys = mnemonicKeys.map { WordTable.normalize(it) }
+        validate(normalizedKeys)
+
+        val pass = normalizedKeys.joinToString(separator = " ")
+        val salt = "mnemonic$normalizedPassphrase"
+
+        return PBKDF2SHA512.derive(pass, salt, PBKDF2_ROUNDS, 64)
+    }
+
+    /**
+     * Convert several mnemonics to seeds in parallel on the given executor. Seeds are returned in
+     * the order of the mnemonics. Each worker thread reuses its own PBKDF2 engine. If any mnemonic is
+     * invalid, the exception of the first invalid one in the list is thrown. Seeds are derived as by
+     * [toNormalizedSeed] if [normalized] is set, and as by [toSeed] otherwise.
+     */
+    fun toSeeds(mnemonics: List<List<String>>, passphrase: String = "", executor: ExecutorService = ForkJoinPool.commonPool(), normalized: Boolean = false): List<ByteArray> {
+        // Normalized once for the batch and dropped with it, so the passphrase is not kept around
+        val normalizedPassphrase = if (normalized) WordTable.normalize(passphrase) else passphrase
+        // Validation errors are returned rather than thrown, as some executors wrap checked exceptions
+        val tasks = mnemonics.map { mnemonicKeys ->
+            Callable<Any> {
+                try {
+                    if (normalized) normalizedSeed(mnemonicKeys, normalizedPassphrase) else toSeed(mnemonicKeys, passphrase)
+                } catch (e: MnemonicException) {
+                    e
+                }
+            }
+        }
+        return executor.invokeAll(tasks).map { future ->
+            val result = try {
+                future.get()
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+            if (result is MnemonicException) {
+                throw result
+            }
+            result as ByteArray
+        }
+    }
+
 
     /**
      * Validate mnemonic keys
@@ -100,13 +139,7 @@ class Mnemonic {
             throw InvalidMnemonicCountException("Count: ${mnemonicKeys.size}")
         }
 
-        val wordsList = WordList.getWords()
-
-        for (mnemonic: String in mnemonicKeys) {
-            if (!wordsList.contains(mnemonic))
-                throw InvalidMnemonicKeyException("Invalid word: $mnemonic")
-        }
-
+        // Throws InvalidMnemonicKeyException for the first word that is not in the list
         validateChecksum(mnemonicKeys)
     }
 
@@ -131,74 +164,16 @@ class Mnemonic {
         // Look up all the words in the list and construct the
         // concatenation of the original entropy and the checksum.
         //
-        val totalLengthBits = mnemonicKeys.size * 11
-        val checksumLengthBits = totalLengthBits / 33
-        val entropy = ByteArray((totalLengthBits - checksumLengthBits) / 8)
-        val checksumBits = mutableListOf<Boolean>()
-
-        val words = WordList.getWords()
-        var bitsProcessed = 0
-        var nextByte = 0.toByte()
-        mnemonicKeys.forEach {
-            words.binarySearch(it).let { phraseIndex ->
-                // fail if the word was not found on the list
-                if (phraseIndex < 0) throw InvalidMnemonicKeyException("Invalid word: $it")
-                // for each of the 11 bits of the phraseIndex
-                (10 downTo 0).forEach { i ->
-                    // isolate the next bit (starting from the big end)
-                    val bit = phraseIndex and (1 shl i) != 0
-                    // if the bit is set, then update the corresponding bit in the nextByte
-                    if (bit) nextByte = nextByte or (1 shl 7 - (bitsProcessed).rem(8)).toByte()
-                    val entropyIndex = ((++bitsProcessed) - 1) / 8
-                    // if we're at a byte boundary (excluding the extra checksum bits)
-                    if (bitsProcessed.rem(8) == 0 && entropyIndex < entropy.size) {
-                        // then set the byte and prepare to process the next byte
-                        entropy[entropyIndex] = nextByte
-                        nextByte = 0.toByte()
-                        // if we're now processing checksum bits, then track them for later
-                    } else if (entropyIndex >= entropy.size) {
-                        checksumBits.add(bit)
-                    }
-                }
-            }
-        }
-
-        // Check each required checksum bit, against the first byte of the sha256 of entropy
-        entropy.toSha256()[0].toBits().let { hashFirstByteBits ->
-            repeat(checksumLengthBits) { i ->
-                // failure means that each word was valid BUT they were in the wrong order
-                if (hashFirstByteBits[i] != checksumBits[i]) throw ChecksumException("Invalid checksum")
-            }
-        }
-
-        return entropy
-    }
-
-    private fun bytesToBits(data: ByteArray): BooleanArray {
-        val bits = BooleanArray(data.size * 8)
-        for (i in data.indices)
-            for (j in 0..7) {
-                val tmp1 = 1 shl (7 - j)
-                val tmp2 = data[i] and tmp1.toByte()
-
-                bits[i * 8 + j] = tmp2 != 0.toByte()
-            }
-        return bits
-    }
-
-    private fun hash(input: ByteArray, offset: Int, length: Int): ByteArray {
-        val digest = newDigest()
-        digest.update(input, offset, length)
-        return digest.digest()
-    }
-
-    private fun newDigest(): MessageDigest {
-        try {
-            return MessageDigest.getInstance("SHA-256")
-        } catch (e: NoSuchAlgorithmException) {
-            throw RuntimeException(e)  // Can't happen.
+        val wordTable = WordTable.english
+        val indices = IntArray(mnemonicKeys.size)
+        for (n in indices.indices) {
+            indices[n] = wordTable.indexOf(mnemonicKeys[n])
+            // fail if the word was not found on the list
+            if (indices[n] < 0) throw InvalidMnemonicKeyException("Invalid word: ${mnemonicKeys[n]}")
         }
 
+        // Checksum failure means that each word was valid BUT they were in the wrong order
+        return MnemonicCodec.decode(indices)
     }
 
     open class MnemonicException(message: String) : Exception(message)
@@ -213,11 +188,3 @@ class Mnemonic {
 
 }
 
-
-//
-// Private Extensions
-//
-
-private fun ByteArray?.toSha256() = MessageDigest.getInstance("SHA-256").digest(this)
-
-private fun Byte.toBits(): List<Boolean> = (7 downTo 0).map { (toInt() and (1 shl it)) != 0 }
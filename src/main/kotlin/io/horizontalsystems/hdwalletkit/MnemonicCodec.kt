@@ -0,0 +1,99 @@
+package io.horizontalsystems.hdwalletkit
+
+import java.security.MessageDigest
+
+/// Converts between entropy and BIP 39 word indices. Bits move through an int accumulator 8 or 11 at a
+/// time instead of being expanded one by one, and the SHA-256 digest and hash buffer are reused per
+/// thread, so a conversion allocates only its result.
+internal object MnemonicCodec {
+
+    private const val INDEX_BITS = 11
+    private const val INDEX_MASK = (1 shl INDEX_BITS) - 1
+
+    private class Context {
+        val sha256: MessageDigest = MessageDigest.getInstance("SHA-256")
+        val hash = ByteArray(32)
+    }
+
+    private val context = object : ThreadLocal<Context>() {
+        override fun initialValue(): Context = Context()
+    }
+
+    /// Word indices of the entropy followed by its checksum, the first ENT / 32 bits of its SHA-256 hash.
+    /// Bits that do not fill a whole index are dropped.
+    fun encode(entropy: ByteArray): IntArray {
+        val entropyBits = entropy.size * 8
+        val checksumBits = entropyBits / 32
+        require(checksumBits <= 256) { "Entropy is too long" }
+        val hash = sha256(entropy)
+
+        val indices = IntArray((entropyBits + checksumBits) / INDEX_BITS)
+        var accumulator = 0
+        var bits = 0
+        var position = 0
+        for (n in indices.indices) {
+            while (bits < INDEX_BITS) {
+                val byte = if (position < entropy.size) entropy[position] else hash[position - entropy.size]
+                accumulator = (accumulator shl 8) or (byte.toInt() and 0xFF)
+                bits += 8
+                position++
+            }
+            bits -= INDEX_BITS
+            indices[n] = (accumulator ushr bits) and INDEX_MASK
+        }
+        return indices
+    }
+
+    /// Entropy packed in the word indices. Indices must be in 0 until 2048 and their count a positive
+    /// multiple of 3.
+    ///
+    /// @throws Mnemonic.ChecksumException if the checksum bits do not match the hash of the entropy.
+    fun decode(indices: IntArray): ByteArray {
+        val totalBits = indices.size * INDEX_BITS
+        val checksumBits = totalBits / 33
+        require(checksumBits <= 256) { "Too many words" }
+        val entropy = ByteArray((totalBits - checksumBits) / 8)
+
+        var hash: ByteArray? = null
+        var valid = true
+        var accumulator = 0
+        var bits = 0
+        var position = 0
+        for (index in indices) {
+            accumulator = (accumulator shl INDEX_BITS) or index
+            bits += INDEX_BITS
+            while (bits >= 8) {
+                bits -= 8
+                val byte = (accumulator ushr bits) and 0xFF
+                if (position < entropy.size) {
+                    entropy[position] = byte.toByte()
+                } else {
+                    // Whole checksum bytes follow the complete entropy
+                    val checksum = hash ?: sha256(entropy).also { hash = it }
+                    valid = valid && byte == (checksum[position - entropy.size].toInt() and 0xFF)
+                }
+                position++
+            }
+        }
+
+        // Remaining bits are the top bits of the next checksum byte
+        val checksum = hash ?: sha256(entropy)
+        if (bits > 0) {
+            val expected = (checksum[position - entropy.size].toInt() and 0xFF) ushr (8 - bits)
+            valid = valid && (accumulator and ((1 shl bits) - 1)) == expected
+        }
+        if (!valid) {
+            throw Mnemonic.ChecksumException("Invalid checksum")
+        }
+        return entropy
+    }
+
+    /// SHA-256 of the data in a per-thread buffer, valid until the next call on the same thread
+    private fun sha256(data: ByteArray): ByteArray {
+        val state = context.get()
+        state.sha256.update(data)
+        state.sha256.digest(state.hash, 0, state.hash.size)
+        return state.hash
+    }
+
+}
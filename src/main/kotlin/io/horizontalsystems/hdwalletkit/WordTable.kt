@@ -0,0 +1,110 @@
+package io.horizontalsystems.hdwalletkit
+
+import java.io.DataInputStream
+import java.io.IOException
+import java.text.Normalizer
+import java.util.Collections
+import java.util.zip.GZIPInputStream
+
+/// Immutable BIP 39 word list with constant-time lookups in both directions.
+/// Word to index goes through an open-addressing table of word indices keyed by String.hashCode,
+/// which strings cache, so a lookup is a few int reads and one string comparison.
+/// Words are kept in NFKD form, the form BIP 39 feeds into the seed, so words of a valid mnemonic
+/// never need to be normalized again.
+class WordTable(words: List<String>) {
+
+    companion object {
+        const val SIZE = 2048
+
+        /// Decoded from its resource on first use and shared process-wide
+        val english: WordTable by lazy { load("english") }
+
+        /// Resource format, GZIP-compressed and big-endian:
+        ///   u16 word count | per word: u8 number of leading bytes shared with the previous word |
+        ///   u8 number of remaining bytes | remaining bytes
+        /// Word bytes are UTF-8.
+        private fun load(name: String): WordTable {
+            val stream = WordTable::class.java.getResourceAsStream("wordlist/$name.bin")
+                    ?: throw IllegalStateException("Missing word list: $name")
+            try {
+                DataInputStream(GZIPInputStream(stream)).use { input ->
+                    val count = input.readUnsignedShort()
+                    val bytes = ByteArray(512)
+                    val words = ArrayList<String>(count)
+                    for (i in 0 until count) {
+                        val shared = input.readUnsignedByte()
+                        val length = shared + input.readUnsignedByte()
+                        input.readFully(bytes, shared, length - shared)
+                        words.add(String(bytes, 0, length, Charsets.UTF_8))
+                    }
+                    return WordTable(words)
+                }
+            } catch (e: IOException) {
+                throw IllegalStateException("Corrupt word list: $name", e)
+            }
+        }
+
+        /// NFKD form of the text, without copying text that is already normalized
+        internal fun normalize(text: String): String {
+            return if (Normalizer.isNormalized(text, Normalizer.Form.NFKD)) text else Normalizer.normalize(text, Normalizer.Form.NFKD)
+        }
+    }
+
+    private val wordArray: Array<String> = Array(words.size) { normalize(words[it]) }
+
+    /// Slot value is word index + 1, 0 marks an empty slot
+    private val slots: IntArray
+    private val mask: Int
+
+    init {
+        require(wordArray.size == SIZE) { "Word list must have $SIZE words" }
+        // Load factor of at most 1/2 keeps probe sequences short
+        val capacity = Integer.highestOneBit(SIZE) shl 1
+        mask = capacity - 1
+        slots = IntArray(capacity)
+        wordArray.forEachIndexed { index, word ->
+            var slot = slot(word)
+            while (slots[slot] != 0) {
+                require(wordArray[slots[slot] - 1] != word) { "Duplicate word: $word" }
+                slot = (slot + 1) and mask
+            }
+            slots[slot] = index + 1
+        }
+    }
+
+    /// Read-only view of the words in index order
+    val words: List<String> = Collections.unmodifiableList(wordArray.asList())
+
+    val size: Int
+        get() = wordArray.size
+
+    fun word(index: Int): String {
+        return wordArray[index]
+    }
+
+    /// Returns the index of the word, or -1 if it is not in the list. The lookup is exact: input in
+    /// another normalization form, such as fullwidth letters, must be normalized by the caller.
+    fun indexOf(word: String): Int {
+        var slot = slot(word)
+        while (true) {
+            val value = slots[slot]
+            if (value == 0) {
+                return -1
+            }
+            if (wordArray[value - 1] == word) {
+                return value - 1
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    fun contains(word: String): Boolean {
+        return indexOf(word) >= 0
+    }
+
+    private fun slot(word: String): Int {
+        val hash = word.hashCode()
+        return (hash xor (hash ushr 16)) and mask
+    }
+
+}
@@ -0,0 +1,221 @@
+package io.horizontalsystems.hdwalletkit
+
+import java.util.TreeMap
+
+/// Prefix trie over the words of a WordTable, for completing and correcting words as they are typed.
+/// Nodes live in flat arrays; the children of a node are stored next to each other in character order,
+/// so walking a prefix costs one short scan per character and words are enumerated in character order.
+/// Fuzzy suggestions walk the trie with one row of the Levenshtein matrix per node and skip every subtree
+/// whose row is already over the distance limit, so their cost is bounded by that limit rather than by the
+/// size of the word list. Tries are immutable and thread-safe.
+class WordTrie(private val table: WordTable) {
+
+    companion object {
+        /// Built on first use and shared process-wide
+        val english: WordTrie by lazy { WordTrie(WordTable.english) }
+    }
+
+    private class Node(val label: Char) {
+        val children = TreeMap<Char, Node>()
+        var word = -1
+        var wordCount = 0
+    }
+
+    private val labels: CharArray
+    private val firstChild: IntArray
+    private val childCount: IntArray
+    /// Index of the word ending at the node, or -1
+    private val nodeWord: IntArray
+    /// Number of words in the subtree of the node, and one of them
+    private val subtreeWordCount: IntArray
+    private val subtreeWord: IntArray
+    private val maxWordLength: Int
+
+    init {
+        val root = Node('\u0000')
+        var nodeCount = 1
+        var longest = 0
+        for (index in 0 until table.size) {
+            val word = table.word(index)
+            longest = maxOf(longest, word.length)
+            var node = root
+            node.wordCount++
+            for (c in word) {
+                node = node.children[c] ?: Node(c).also {
+                    node.children[c] = it
+                    nodeCount++
+                }
+                node.wordCount++
+            }
+            node.word = index
+        }
+        maxWordLength = longest
+
+        labels = CharArray(nodeCount)
+        firstChild = IntArray(nodeCount)
+        childCount = IntArray(nodeCount)
+        nodeWord = IntArray(nodeCount)
+        subtreeWordCount = IntArray(nodeCount)
+        subtreeWord = IntArray(nodeCount)
+
+        // Breadth-first numbering keeps the children of every node contiguous
+        val queue = ArrayList<Node>(nodeCount)
+        queue.add(root)
+        var head = 0
+        while (head < queue.size) {
+            val node = queue[head]
+            labels[head] = node.label
+            nodeWord[head] = node.word
+            subtreeWordCount[head] = node.wordCount
+            firstChild[head] = queue.size
+            childCount[head] = node.children.size
+            queue.addAll(node.children.values)
+            head++
+        }
+        for (id in nodeCount - 1 downTo 0) {
+            subtreeWord[id] = if (nodeWord[id] >= 0) nodeWord[id] else subtreeWord[firstChild[id]]
+        }
+    }
+
+    /// Returns the index of the word the prefix stands for, or -1 if it does not identify a single word.
+    /// That is the only word starting with the prefix, or the word equal to the prefix. Four letters are
+    /// enough to identify any word of a BIP 39 list.
+    fun resolve(prefix: String): Int {
+        val node = find(WordTable.normalize(prefix))
+        if (node < 0) {
+            return -1
+        }
+        if (nodeWord[node] >= 0) {
+            return nodeWord[node]
+        }
+        return if (subtreeWordCount[node] == 1) subtreeWord[node] else -1
+    }
+
+    /// Number of words starting with the prefix
+    fun countWithPrefix(prefix: String): Int {
+        val node = find(WordTable.normalize(prefix))
+        return if (node < 0) 0 else subtreeWordCount[node]
+    }
+
+    /// Up to `limit` words starting with the prefix, in character order
+    fun wordsWithPrefix(prefix: String, limit: Int = Int.MAX_VALUE): List<String> {
+        require(limit >= 0) { "Limit must not be negative" }
+        val node = find(WordTable.normalize(prefix))
+        if (node < 0 || limit == 0) {
+            return listOf()
+        }
+        val words = ArrayList<String>(minOf(limit, subtreeWordCount[node]))
+        collect(node, words, limit)
+        return words
+    }
+
+    /// Up to `limit` words within `maxDistance` edits (insertions, deletions and substitutions) of the
+    /// word, closest first and in word list order among words at the same distance
+    fun suggest(word: String, limit: Int, maxDistance: Int = 2): List<String> {
+        require(limit >= 0) { "Limit must not be negative" }
+        require(maxDistance >= 0) { "Distance must not be negative" }
+        val target = WordTable.normalize(word)
+        if (limit == 0) {
+            return listOf()
+        }
+
+        val rows = Array(maxWordLength + 1) { IntArray(target.length + 1) }
+        for (i in 0..target.length) {
+            rows[0][i] = i
+        }
+        val matches = Matches(limit, maxDistance)
+        for (child in firstChild[0] until firstChild[0] + childCount[0]) {
+            suggest(child, 1, target, rows, matches)
+        }
+
+        // Distance in the high half, word index in the low half, so sorting orders by both
+        val found = matches.values.copyOf(matches.size)
+        found.sort()
+        return List(minOf(limit, found.size)) { table.word(found[it].toInt()) }
+    }
+
+    private class Matches(private val limit: Int, maxDistance: Int) {
+        var values = LongArray(16)
+        var size = 0
+
+        /// Largest distance that can still make it into the result. Once `limit` words have been found
+        /// within some distance, farther words are never returned and their subtrees are skipped.
+        var maxDistance = maxDistance
+            private set
+        private val counts = IntArray(maxDistance + 1)
+
+        fun add(distance: Int, index: Int) {
+            if (size == values.size) {
+                values = values.copyOf(size * 2)
+            }
+            values[size++] = (distance.toLong() shl 32) or index.toLong()
+
+            counts[distance]++
+            var found = 0
+            for (d in 0 until maxDistance) {
+                found += counts[d]
+                if (found >= limit) {
+                    maxDistance = d
+                    break
+                }
+            }
+        }
+    }
+
+    private fun suggest(node: Int, depth: Int, target: String, rows: Array<IntArray>, matches: Matches) {
+        val previous = rows[depth - 1]
+        val row = rows[depth]
+        val label = labels[node]
+        row[0] = depth
+        var rowMin = depth
+        for (i in 1..target.length) {
+            val cost = if (target[i - 1] == label) 0 else 1
+            val distance = minOf(previous[i - 1] + cost, previous[i] + 1, row[i - 1] + 1)
+            row[i] = distance
+            if (distance < rowMin) {
+                rowMin = distance
+            }
+        }
+
+        if (rowMin > matches.maxDistance) {
+            return
+        }
+        if (nodeWord[node] >= 0 && row[target.length] <= matches.maxDistance) {
+            matches.add(row[target.length], nodeWord[node])
+        }
+        for (child in firstChild[node] until firstChild[node] + childCount[node]) {
+            suggest(child, depth + 1, target, rows, matches)
+        }
+    }
+
+    private fun collect(node: Int, words: MutableList<String>, limit: Int) {
+        if (nodeWord[node] >= 0) {
+            words.add(table.word(nodeWord[node]))
+        }
+        for (child in firstChild[node] until firstChild[node] + childCount[node]) {
+            if (words.size == limit) {
+                return
+            }
+            collect(child, words, limit)
+        }
+    }
+
+    /// Node reached by the prefix, or -1
+    private fun find(prefix: String): Int {
+        var node = 0
+        for (c in prefix) {
+            val start = firstChild[node]
+            val end = start + childCount[node]
+            var child = start
+            while (child < end && labels[child] != c) {
+                child++
+            }
+            if (child == end) {
+                return -1
+            }
+            node = child
+        }
+        return node
+    }
+
+}
@@ -0,0 +1,75 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class BloomFilterTest {
+
+    @Test
+    fun murmurHash3() {
+        // Test vectors from Bitcoin Core
+        assertEquals(0x00000000, BloomFilter.murmurHash3(0x00000000, ByteArray(0), 0, 0))
+        assertEquals(0x6a396f08, BloomFilter.murmurHash3(0xFBA4C795.toInt(), ByteArray(0), 0, 0))
+        assertEquals(0x514E28B7, BloomFilter.murmurHash3(0x00000000, "00".hexStringToByteArray(), 0, 1))
+        assertEquals(0xea3f0b17.toInt(), BloomFilter.murmurHash3(0xFBA4C795.toInt(), "00".hexStringToByteArray(), 0, 1))
+        assertEquals(0x76293b50, BloomFilter.murmurHash3(0x00000000, "ffffffff".hexStringToByteArray(), 0, 4))
+        assertEquals(0xf55b516b.toInt(), BloomFilter.murmurHash3(0x00000000, "21436587".hexStringToByteArray(), 0, 4))
+        assertEquals(0x2362f9de, BloomFilter.murmurHash3(0x5082EDEE, "21436587".hexStringToByteArray(), 0, 4))
+        assertEquals(0x7e4a8634, BloomFilter.murmurHash3(0x00000000, "214365".hexStringToByteArray(), 0, 3))
+    }
+
+    @Test
+    fun insertAndSerialize() {
+        // Test vector from Bitcoin Core bloom_tests
+        val filter = BloomFilter(3, 0.01, 0, BloomFilter.UPDATE_ALL)
+
+        filter.insert("99108ad8ed9bb6274d3980bab5a85c048f0950c8".hexStringToByteArray())
+        assertTrue(filter.contains("99108ad8ed9bb6274d3980bab5a85c048f0950c8".hexStringToByteArray()))
+        assertFalse(filter.contains("19108ad8ed9bb6274d3980bab5a85c048f0950c8".hexStringToByteArray()))
+        filter.insert("b5a2c786d9ef4658287ced5914b37a1b4aa32eee".hexStringToByteArray())
+        filter.insert("b9300670b4c5366e95b2699e8b18bc75e5f729c5".hexStringToByteArray())
+
+        assertEquals("03614e9b050000000000000001", filter.serialize().toHexString())
+    }
+
+    @Test
+    fun insertAndSerialize_tweak() {
+        val filter = BloomFilter(3, 0.01, 2147483649L.toInt(), BloomFilter.UPDATE_ALL)
+
+        filter.insertAll(("99108ad8ed9bb6274d3980bab5a85c048f0950c8" +
+                "b5a2c786d9ef4658287ced5914b37a1b4aa32eee" +
+                "b9300670b4c5366e95b2699e8b18bc75e5f729c5").hexStringToByteArray(), 0, 3, 20)
+
+        assertEquals("03ce4299050000000100008001", filter.serialize().toHexString())
+    }
+
+    @Test
+    fun containsAll_walletKeys() {
+        val seed = "6908630f564bd3ca9efb521e72da86727fc78285b15decedb44f40b02474502ed6844958b29465246a618b1b56b4bdffacd1de8b324159e0f7f594c611b0519d".hexStringToByteArray()
+        val wallet = HDWallet(seed, 0)
+        val batch = wallet.hdPublicKeyBatch(0, 0 until 100, true)
+        val filter = BloomFilter(200, 0.0001, 7)
+        batch.insertInto(filter)
+
+        val matches = BooleanArray(100)
+
+        assertEquals(100, filter.containsAll(batch.publicKeyHashes, 0, 100, 20, matches))
+        assertTrue(matches.all { it })
+        assertTrue(filter.contains(wallet.hdPublicKey(0, 42, true).publicKey))
+        assertTrue(filter.getFalsePositiveRate(200) < 0.0002)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun insertAll_lengthOverflow() {
+        // 2^30 elements of 4 bytes wrap around to a total length of 0 in Int arithmetic
+        BloomFilter(10, 0.01, 0).insertAll(ByteArray(16), 0, 1 shl 30, 4)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun containsAll_lengthOverflow() {
+        BloomFilter(10, 0.01, 0).containsAll(ByteArray(16), 0, 1 shl 30, 4, BooleanArray(16))
+    }
+
+}
@@ -0,0 +1,88 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.junit.Assert
+import org.junit.Test
+
+class DerivationPathTest {
+
+    @Test
+    fun parse_rootPaths() {
+        Assert.assertEquals(DerivationPath.ROOT, DerivationPath.parse(""))
+        Assert.assertEquals(DerivationPath.ROOT, DerivationPath.parse("m"))
+        Assert.assertEquals(DerivationPath.ROOT, DerivationPath.parse("/"))
+    }
+
+    @Test
+    fun parse_equivalentForms() {
+        val path = DerivationPath.parse("m/44'/1'/2'")
+
+        Assert.assertEquals(path, DerivationPath.parse("44'/1'/2'"))
+        Assert.assertEquals(path, DerivationPath.ROOT.child(44, true).child(1, true).child(2, true))
+        Assert.assertEquals("m/44'/1'/2'", path.toString())
+    }
+
+    @Test
+    fun parse_hardenedFlag() {
+        val path = DerivationPath.parse("m/44'/0")
+
+        Assert.assertEquals(2, path.depth)
+        Assert.assertTrue(path.isHardened(0))
+        Assert.assertEquals(44, path.getChildNumber(0))
+        Assert.assertEquals(44 or HDKey.HARDENED_FLAG, path.get(0))
+        Assert.assertFalse(path.isHardened(1))
+    }
+
+    @Test(expected = NumberFormatException::class)
+    fun parse_invalidPath() {
+        DerivationPath.parse("m/b/c")
+    }
+
+    @Test(expected = NumberFormatException::class)
+    fun parse_spaces() {
+        DerivationPath.parse("m / 0 / 1")
+    }
+
+    @Test(expected = NumberFormatException::class)
+    fun parse_leadingSlash() {
+        DerivationPath.parse("/0'")
+    }
+
+    @Test(expected = NumberFormatException::class)
+    fun parse_emptyPathAfterPrefix() {
+        DerivationPath.parse("m/")
+    }
+
+    @Test
+    fun parse_negativeChildNumber() {
+        for (path in listOf("m/-1", "m/-1'", "0/-5")) {
+            try {
+                DerivationPath.parse(path)
+                Assert.fail("Accepted $path")
+            } catch (e: NumberFormatException) {
+                Assert.fail("Rejected $path as malformed")
+            } catch (e: IllegalArgumentException) {
+            }
+        }
+    }
+
+    @Test(expected = NumberFormatException::class)
+    fun parse_trailingSlash() {
+        DerivationPath.parse("m/0/")
+    }
+
+    @Test(expected = NumberFormatException::class)
+    fun parse_emptyLevel() {
+        DerivationPath.parse("m/0//1")
+    }
+
+    @Test
+    fun parent_sharesPrefix() {
+        val path = DerivationPath.parse("m/84'/0'/0'/0/5")
+
+        Assert.assertEquals(DerivationPath.parse("m/84'/0'/0'/0"), path.parent())
+        Assert.assertEquals(DerivationPath.parse("m/84'/0'/0'/0").hashCode(), path.parent().hashCode())
+        Assert.assertEquals(path, path.parent().child(5, false))
+        Assert.assertEquals(DerivationPath.ROOT, path.prefix(0))
+    }
+
+}
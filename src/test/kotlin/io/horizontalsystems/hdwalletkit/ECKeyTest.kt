@@ -59,4 +59,16 @@ class ECKeyTest {
         ecKey.createSignature(dataToSign)
     }
 
+    @Test
+    fun pubKeyFromPrivKey_matchesGeneratorMultiply() {
+        Assert.assertArrayEquals(publicKey, ECKey.pubKeyFromPrivKey(privateKey, true))
+
+        var key = privateKey
+        repeat(16) {
+            val expected = ECKey.ecParams.g.multiply(key).getEncoded(false)
+            Assert.assertArrayEquals(expected, ECKey.pubKeyFromPrivKey(key, false))
+            key = key.multiply(key).mod(ECKey.ecParams.n)
+        }
+    }
+
 }
@@ -0,0 +1,94 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+class HDAccountDiscoveryTest {
+
+    private val seed = "6908630f564bd3ca9efb521e72da86727fc78285b15decedb44f40b02474502ed6844958b29465246a618b1b56b4bdffacd1de8b324159e0f7f594c611b0519d".hexStringToByteArray()
+    private val hdWallet = HDWallet(seed, 0, gapLimit = 5)
+
+    @Test
+    fun discover_stopsAfterGapLimit() {
+        val used = listOf(hdWallet.hdPublicKey(0, 2, true), hdWallet.hdPublicKey(0, 6, true), hdWallet.hdPublicKey(0, 13, true))
+        val executor = Executors.newSingleThreadExecutor()
+
+        val result = HDAccountDiscovery(hdWallet, InMemoryKeyUsageLookup(used), executor, windowSize = 3).discover(0)
+        executor.shutdown()
+
+        // Index 13 is after a gap of 6 unused keys, so it is not discovered
+        assertTrue(result.isUsed)
+        assertEquals(listOf(2, 6), result.external.usedKeys.map { it.index })
+        assertEquals(6, result.external.lastUsedIndex)
+        assertFalse(result.internal.isUsed)
+        assertEquals(-1, result.internal.lastUsedIndex)
+    }
+
+    @Test
+    fun discover_internalChain() {
+        val used = listOf(hdWallet.hdPublicKey(0, 0, false), hdWallet.hdPublicKey(0, 4, false))
+
+        val result = HDAccountDiscovery(hdWallet, InMemoryKeyUsageLookup(used), Executor { it.run() }).discover(0, false)
+
+        assertEquals(listOf(0, 4), result.usedKeys.map { it.index })
+        assertFalse(result.usedKeys[0].external)
+    }
+
+    @Test
+    fun discover_withoutPrefetch() {
+        val used = listOf(hdWallet.hdPublicKey(0, 2, true), hdWallet.hdPublicKey(0, 6, true), hdWallet.hdPublicKey(0, 13, true))
+        val usedLookup = InMemoryKeyUsageLookup(used)
+        val checked = mutableListOf<Int>()
+        val lookup = object : HDAccountDiscovery.KeyUsageLookup {
+            override fun isUsed(publicKey: HDPublicKey): Boolean {
+                checked.add(publicKey.index)
+                return usedLookup.isUsed(publicKey)
+            }
+        }
+
+        val result = HDAccountDiscovery(hdWallet, lookup, null, windowSize = 3).discover(0, true)
+
+        assertEquals(listOf(2, 6), result.usedKeys.map { it.index })
+        assertEquals((0..11).toList(), checked)
+    }
+
+    @Test
+    fun discover_derivesQueuedWindowsItself() {
+        val used = listOf(hdWallet.hdPublicKey(0, 2, true), hdWallet.hdPublicKey(0, 6, true), hdWallet.hdPublicKey(0, 13, true))
+        // Never runs a task, as a pool whose threads are all busy
+        val queued = mutableListOf<Runnable>()
+
+        val result = HDAccountDiscovery(hdWallet, InMemoryKeyUsageLookup(used), Executor { queued.add(it) }, windowSize = 3, prefetchWindows = 2).discover(0, true)
+
+        assertEquals(listOf(2, 6), result.usedKeys.map { it.index })
+        // Windows 3..5, 6..8 and 9..11 were taken; 12..14 and 15..17 were still ahead when the gap was found
+        assertEquals(5, queued.size)
+        assertEquals(listOf(false, false, false, true, true), queued.map { (it as Future<*>).isCancelled })
+    }
+
+    @Test
+    fun discover_lookupFailureCancelsNextWindow() {
+        val queued = mutableListOf<Runnable>()
+        val lookup = object : HDAccountDiscovery.KeyUsageLookup {
+            override fun isUsed(publicKey: HDPublicKey): Boolean {
+                throw IllegalStateException("Lookup failed")
+            }
+        }
+
+        try {
+            HDAccountDiscovery(hdWallet, lookup, Executor { queued.add(it) }).discover(0, true)
+            fail()
+        } catch (e: IllegalStateException) {
+            assertEquals("Lookup failed", e.message)
+        }
+
+        assertTrue((queued.single() as Future<*>).isCancelled)
+    }
+
+}
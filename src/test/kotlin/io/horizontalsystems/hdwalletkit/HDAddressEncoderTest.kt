@@ -0,0 +1,59 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class HDAddressEncoderTest {
+
+    // Compressed public key of private key 1
+    private val generatorHash = Utils.sha256Hash160("0279be667ef9dcbbac55a06295ce870b07029bfcdb2dce28d959f2815b16f81798".hexStringToByteArray())
+
+    @Test
+    fun p2pkh() {
+        assertEquals("1BgGZ9tcN4rm9KBzDn7KprQz87SZ26SAMH", HDAddressEncoder(HDWallet.Purpose.BIP44).encode(generatorHash))
+    }
+
+    @Test
+    fun p2pkh_leadingZeros() {
+        assertEquals("1111111111111111111114oLvT2", HDAddressEncoder(HDWallet.Purpose.BIP44).encode(ByteArray(20)))
+    }
+
+    @Test
+    fun p2shP2wpkh() {
+        assertEquals("3JvL6Ymt8MVWiCNHC7oWU6nLeHNJKLZGLN", HDAddressEncoder(HDWallet.Purpose.BIP49).encode(generatorHash))
+    }
+
+    @Test
+    fun p2shP2wpkh_bip49TestVector() {
+        val publicKey = "03a1af804ac108a8a51782198c2d034b28bf90c8803f5a53f76276fa69a4eae77f".hexStringToByteArray()
+
+        val address = HDAddressEncoder.testNet(HDWallet.Purpose.BIP49).encode(Utils.sha256Hash160(publicKey))
+
+        assertEquals("2Mww8dCYPUpKHofjgcXcBCEGmniw9CoaiD2", address)
+    }
+
+    @Test
+    fun p2wpkh() {
+        // BIP 173 and BIP 84 test vectors
+        assertEquals("bc1qw508d6qejxtdg4y5r3zarvary0c5xw7kv8f3t4", HDAddressEncoder(HDWallet.Purpose.BIP84).encode(generatorHash))
+        assertEquals("tb1qw508d6qejxtdg4y5r3zarvary0c5xw7kxpjzsx", HDAddressEncoder.testNet(HDWallet.Purpose.BIP84).encode(generatorHash))
+
+        val publicKey = "0330d54fd0dd420a6e5f8d3624f5f3482cae350f79d5f0753bf5beef9c2d91af3c".hexStringToByteArray()
+        assertEquals("bc1qcr8te4kr609gcawutmrza0j4xv80jy8z306fyu", HDAddressEncoder(HDWallet.Purpose.BIP84).encode(Utils.sha256Hash160(publicKey)))
+    }
+
+    @Test
+    fun encodeAll_matchesSingleEncoding() {
+        val seed = "6908630f564bd3ca9efb521e72da86727fc78285b15decedb44f40b02474502ed6844958b29465246a618b1b56b4bdffacd1de8b324159e0f7f594c611b0519d".hexStringToByteArray()
+        val wallet = HDWallet(seed, 0, purpose = HDWallet.Purpose.BIP84)
+        val encoder = HDAddressEncoder(HDWallet.Purpose.BIP84)
+        val batch = wallet.hdPublicKeyBatch(0, 0 until 20, true)
+
+        val addresses = encoder.encodeAll(batch)
+
+        assertArrayEquals(Array(20) { encoder.encode(batch.publicKeyHash(it)) }, addresses)
+        assertEquals(addresses.toList(), encoder.encodeAll(wallet.hdPublicKeys(0, 0 until 20, true)))
+    }
+
+}
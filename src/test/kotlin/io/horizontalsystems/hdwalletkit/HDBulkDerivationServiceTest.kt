@@ -0,0 +1,112 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicReference
+
+class HDBulkDerivationServiceTest {
+
+    private val paths = listOf("m/44'/0'/0'/0/0", "m/44'/0'/0'/0/1", "m/44'/0'/0'/1/0", "m/84'/0'/0'/0/0").map { DerivationPath.parse(it) }
+    private val service = HDBulkDerivationService(threads = 3, capacity = 4)
+
+    @After
+    fun tearDown() {
+        service.close()
+    }
+
+    @Test
+    fun deriveAll_resultsInSubmissionOrder() {
+        val jobs = List(20) { n -> HDBulkDerivationService.Job(ByteArray(32) { (it + n).toByte() }, paths) }
+
+        var maxPending = 0
+        val results = service.deriveAll(jobs.asSequence()).onEach { maxPending = maxOf(maxPending, service.pendingCount + 1) }.toList()
+
+        assertEquals(jobs.size, results.size)
+        assertTrue(maxPending <= service.capacity)
+        results.forEachIndexed { n, result ->
+            assertSame(jobs[n], result.job)
+            val keychain = HDKeychain(jobs[n].seed)
+            paths.forEachIndexed { i, path ->
+                assertArrayEquals(keychain.getKeyByPath(path).pubKey, result.keys[i].pubKey)
+            }
+        }
+    }
+
+    @Test
+    fun take_rethrowsFailureAndContinues() {
+        val valid = HDBulkDerivationService.Job(ByteArray(32) { 7 }, paths)
+        service.submit(HDBulkDerivationService.Job(ByteArray(8), paths))
+        service.submit(valid)
+
+        try {
+            service.take()
+            fail("Expected the short seed to be rejected")
+        } catch (e: IllegalArgumentException) {
+        }
+
+        assertSame(valid, service.take().job)
+        assertEquals(0, service.pendingCount)
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun take_nothingPending() {
+        service.take()
+    }
+
+    @Test
+    fun take_interruptedKeepsJobPending() {
+        // Enough leaves that the job is still running when take() starts waiting
+        val slowJob = HDBulkDerivationService.Job(ByteArray(32) { 3 }, List(3000) { DerivationPath.parse("m/44'/0'/0'/0").child(it, false) })
+        service.submit(slowJob)
+
+        Thread.currentThread().interrupt()
+        try {
+            service.take()
+            fail("Expected the wait to be interrupted")
+        } catch (e: InterruptedException) {
+        }
+
+        assertEquals(1, service.pendingCount)
+        assertSame(slowJob, service.take().job)
+        assertEquals(0, service.pendingCount)
+    }
+
+    @Test
+    fun close_failsTakeAndSubmit() {
+        service.submit(HDBulkDerivationService.Job(ByteArray(32) { 5 }, paths))
+        service.close()
+
+        try {
+            service.take()
+            fail("Expected take to fail after close")
+        } catch (e: IllegalStateException) {
+        }
+        try {
+            service.submit(HDBulkDerivationService.Job(ByteArray(32) { 6 }, paths))
+            fail("Expected submit to fail after close")
+        } catch (e: IllegalStateException) {
+        }
+    }
+
+    @Test
+    fun close_wakesWaitingTake() {
+        val slowJob = HDBulkDerivationService.Job(ByteArray(32) { 4 }, List(3000) { DerivationPath.parse("m/44'/0'/0'/0").child(it, false) })
+        service.submit(slowJob)
+        val failure = AtomicReference<Throwable>()
+        val consumer = Thread { failure.set(runCatching { service.take() }.exceptionOrNull()) }
+        consumer.start()
+
+        service.close()
+        consumer.join(10000)
+
+        assertFalse(consumer.isAlive)
+        assertTrue(failure.get() is IllegalStateException)
+    }
+
+}
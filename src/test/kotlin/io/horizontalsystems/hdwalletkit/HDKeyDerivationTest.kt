@@ -0,0 +1,66 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.junit.Assert
+import org.junit.Test
+import java.math.BigInteger
+
+class HDKeyDerivationTest {
+
+    private val seed = "6908630f564bd3ca9efb521e72da86727fc78285b15decedb44f40b02474502ed6844958b29465246a618b1b56b4bdffacd1de8b324159e0f7f594c611b0519d".hexStringToByteArray()
+    private val rootKey = HDKeyDerivation.createRootKey(seed)
+
+    @Test
+    fun deriveNonHardenedChildKeys_privateParent() {
+        val parent = HDKeyDerivation.deriveKey(rootKey, DerivationPath.parse("m/84'/0'/0'/0"))
+
+        val batch = HDKeyDerivation.deriveNonHardenedChildKeys(parent, 3, 20)
+
+        batch.forEachIndexed { n, key ->
+            val single = HDKeyDerivation.deriveChildKey(parent, 3 + n, false)
+            Assert.assertEquals(3 + n, key.childNumber)
+            Assert.assertEquals(single.privKey, key.privKey)
+            Assert.assertArrayEquals(single.pubKey, key.pubKey)
+            Assert.assertArrayEquals(single.chainCode, key.chainCode)
+        }
+    }
+
+    @Test
+    fun deriveNonHardenedChildKeys_publicParent() {
+        val privateParent = HDKeyDerivation.deriveKey(rootKey, DerivationPath.parse("m/44'/0'/0'/1"))
+        val publicParent = HDKey(privateParent.pubKey, privateParent.chainCode, null, 0, false)
+
+        val batch = HDKeyDerivation.deriveNonHardenedChildKeys(publicParent, 0, 20)
+
+        batch.forEachIndexed { n, key ->
+            Assert.assertNull(key.privKey)
+            Assert.assertArrayEquals(HDKeyDerivation.deriveChildKey(privateParent, n, false).pubKey, key.pubKey)
+        }
+    }
+
+    @Test
+    fun pubKeysFromPrivKeys_batch() {
+        val privKeys = HDKeyDerivation.deriveNonHardenedChildKeys(rootKey, 0, 10).map { it.privKey }.toTypedArray()
+
+        val pubKeys = ECKey.pubKeysFromPrivKeys(privKeys, true)
+
+        privKeys.forEachIndexed { n, privKey ->
+            Assert.assertArrayEquals(ECKey.pubKeyFromPrivKey(privKey, true), pubKeys[n])
+        }
+    }
+
+    @Test
+    fun derivationContext_hmacMatchesUtils() {
+        val context = DerivationContext.get()
+        val data = "000102030405060708090a0b0c0d0e0f".hexStringToByteArray()
+        val keys = listOf(rootKey.chainCode, rootKey.chainCode, ByteArray(200) { it.toByte() }, rootKey.chainCode)
+
+        keys.forEach { key ->
+            val expected = Utils.hmacSha512(key, data)
+            context.hmacSha512(key, data)
+
+            Assert.assertEquals(BigInteger(1, expected.copyOfRange(0, 32)), context.il.toBigInteger())
+            Assert.assertArrayEquals(expected.copyOfRange(32, 64), context.copyIR())
+        }
+    }
+
+}
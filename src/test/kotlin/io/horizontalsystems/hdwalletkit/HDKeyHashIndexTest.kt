@@ -0,0 +1,81 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+
+class HDKeyHashIndexTest {
+
+    private val seed = "6908630f564bd3ca9efb521e72da86727fc78285b15decedb44f40b02474502ed6844958b29465246a618b1b56b4bdffacd1de8b324159e0f7f594c611b0519d".hexStringToByteArray()
+
+    @Test
+    fun packUnpack() {
+        val packed = HDKeyHashIndex.pack(HDWallet.Purpose.BIP84, 4194303, false, Int.MAX_VALUE)
+
+        val location = HDKeyHashIndex.unpack(packed)
+
+        assertTrue(packed >= 0)
+        assertEquals(HDKeyHashIndex.Location(HDWallet.Purpose.BIP84, 4194303, false, Int.MAX_VALUE), location)
+    }
+
+    @Test
+    fun addAll_findsWalletKeys() {
+        val wallet = HDWallet(seed, 0, purpose = HDWallet.Purpose.BIP49)
+        // A small initial capacity makes the index grow several times
+        val index = HDKeyHashIndex(4)
+
+        index.addAll(wallet, 0, 0 until 100, true)
+        index.addAll(wallet, 0, 0 until 50, false)
+        index.addAll(wallet, 1, 0 until 10, true)
+
+        assertEquals(160, index.size)
+        for (publicKey in wallet.hdPublicKeys(0, 0 until 50, false)) {
+            assertEquals(HDKeyHashIndex.Location(HDWallet.Purpose.BIP49, 0, false, publicKey.index), index.get(publicKey.publicKeyHash))
+        }
+        val key = wallet.hdPublicKey(1, 7, true)
+        assertEquals(HDKeyHashIndex.Location(HDWallet.Purpose.BIP49, 1, true, 7), index.get(key.publicKeyHash))
+    }
+
+    @Test
+    fun lookup_unknownHash() {
+        val wallet = HDWallet(seed, 0)
+        val index = HDKeyHashIndex()
+        index.addAll(wallet, 0, 0 until 20, true)
+
+        val unknown = wallet.hdPublicKey(0, 20, true).publicKeyHash
+
+        assertFalse(index.contains(unknown))
+        assertNull(index.get(unknown))
+        assertEquals(HDKeyHashIndex.NOT_FOUND, index.lookup(ByteArray(20)))
+    }
+
+    @Test
+    fun add_replacesLocation() {
+        val hash = ByteArray(20) { it.toByte() }
+        val index = HDKeyHashIndex()
+
+        index.add(hash, HDKeyHashIndex.Location(HDWallet.Purpose.BIP44, 0, true, 1))
+        index.add(hash, HDKeyHashIndex.Location(HDWallet.Purpose.BIP44, 0, true, 2))
+
+        assertEquals(1, index.size)
+        assertEquals(2, index.get(hash)?.index)
+    }
+
+    @Test
+    fun init_capacityBoundary() {
+        // A table for the largest initial capacity takes 1 GiB, one more key would overflow the buffer size
+        assertEquals(1 shl 24, HDKeyHashIndex.MAX_INITIAL_CAPACITY)
+        for (capacity in listOf(HDKeyHashIndex.MAX_INITIAL_CAPACITY + 1, 1 shl 25, 0)) {
+            try {
+                HDKeyHashIndex(capacity)
+                fail()
+            } catch (e: IllegalArgumentException) {
+                assertEquals("Initial capacity must be in 1..${HDKeyHashIndex.MAX_INITIAL_CAPACITY}", e.message)
+            }
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.fail
+import org.junit.Test
+import java.io.File
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+class HDKeychainRegistryTest {
+
+    private val seed = "6908630f564bd3ca9efb521e72da86727fc78285b15decedb44f40b02474502ed6844958b29465246a618b1b56b4bdffacd1de8b324159e0f7f594c611b0519d".hexStringToByteArray()
+
+    @Test
+    fun acquire_sharesKeychainPerSeed() {
+        val registry = HDKeychainRegistry()
+
+        val first = registry.acquire(seed)
+        val second = registry.acquire(seed.copyOf())
+        val other = registry.acquire(ByteArray(64) { 1 })
+
+        assertSame(first, second)
+        assertNotSame(first, other)
+        assertEquals(2, registry.size)
+    }
+
+    @Test
+    fun release_removesKeychainAfterLastReference() {
+        val registry = HDKeychainRegistry()
+        val first = registry.acquire(seed)
+        registry.acquire(seed)
+
+        registry.release(first)
+        assertEquals(1, registry.size)
+        registry.release(first)
+        assertEquals(0, registry.size)
+
+        assertNotSame(first, registry.acquire(seed))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun release_unknownKeychain() {
+        HDKeychainRegistry().release(HDKeychain(seed))
+    }
+
+    @Test
+    fun wallets_shareDerivedNodes() {
+        val registry = HDKeychainRegistry()
+        val bip44 = HDWallet(seed, 0, registry)
+        val bip49 = HDWallet(seed, 0, registry, purpose = HDWallet.Purpose.BIP49)
+        val testNet = HDWallet(seed, 1, registry)
+
+        assertArrayEquals(HDWallet(seed, 0).receiveHDPublicKey(0, 0).publicKey, bip44.receiveHDPublicKey(0, 0).publicKey)
+        assertArrayEquals(HDWallet(seed, 0, purpose = HDWallet.Purpose.BIP49).receiveHDPublicKey(0, 0).publicKey, bip49.receiveHDPublicKey(0, 0).publicKey)
+        assertArrayEquals(HDWallet(seed, 1).changeHDPublicKey(0, 0).publicKey, testNet.changeHDPublicKey(0, 0).publicKey)
+
+        bip44.close()
+        bip44.close()
+        bip49.close()
+        assertEquals(1, registry.size)
+        testNet.close()
+        assertEquals(0, registry.size)
+    }
+
+    @Test
+    fun wallet_invalidArgumentsReleaseKeychain() {
+        val registry = HDKeychainRegistry()
+        val file = File.createTempFile("hdpk", ".cache")
+        try {
+            HDPublicKeyFileCache.open(file, HDKeychain(ByteArray(64) { 1 })).use { otherCache ->
+                try {
+                    HDWallet(seed, 0, registry, publicKeyCache = otherCache)
+                    fail("Expected a cache of another seed to be rejected")
+                } catch (e: IllegalArgumentException) {
+                }
+            }
+            assertEquals(0, registry.size)
+
+            try {
+                HDWallet(seed, -1, registry)
+                fail("Expected a negative coin type to be rejected")
+            } catch (e: IllegalArgumentException) {
+            }
+            assertEquals(0, registry.size)
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    fun wallets_concurrentUse() {
+        val registry = HDKeychainRegistry()
+        val expected = HDWallet(seed, 0).hdPublicKeys(0, 0 until 10, true)
+        val executor = Executors.newFixedThreadPool(4)
+        try {
+            val tasks = List(8) {
+                Callable {
+                    HDWallet(seed, 0, registry).use { it.hdPublicKeys(0, 0 until 10, true) }
+                }
+            }
+            for (future in executor.invokeAll(tasks)) {
+                future.get().forEachIndexed { index, publicKey ->
+                    assertArrayEquals(expected[index].publicKey, publicKey.publicKey)
+                }
+            }
+        } finally {
+            executor.shutdown()
+        }
+
+        assertEquals(0, registry.size)
+    }
+
+}
@@ -2,6 +2,7 @@ package io.horizontalsystems.hdwalletkit
 
 import org.junit.Assert
 import org.junit.Test
+import java.util.concurrent.ForkJoinPool
 
 class HDKeychainTest {
 
@@ -31,4 +32,106 @@ class HDKeychainTest {
         hdKeyManager.getKeyByPath(path32)
     }
 
+    @Test
+    fun getKeyByPath_cachedPrefix() {
+        val keychain = HDKeychain(seed)
+
+        val first = keychain.getKeyByPath("m/44'/0'/0'/0/0")
+        Assert.assertEquals(0, keychain.cacheHitCount)
+        Assert.assertEquals(1, keychain.cacheMissCount)
+
+        val second = keychain.getKeyByPath("m/44'/0'/0'/0/1")
+        Assert.assertEquals(1, keychain.cacheHitCount)
+
+        // The account node is cached, but the chain node is not: still one miss for the lookup
+        keychain.getKeyByPath("m/44'/0'/0'/1/0")
+        Assert.assertEquals(1, keychain.cacheHitCount)
+        Assert.assertEquals(2, keychain.cacheMissCount)
+
+        val uncached = HDKeychain(seed, cacheSize = 1).getKeyByPath("m/44'/0'/0'/0/1")
+        Assert.assertArrayEquals(uncached.pubKey, second.pubKey)
+        Assert.assertEquals("m/44'/0'/0'/0/0", first.toString())
+        Assert.assertEquals("m/44'/0'/0'/0/1", second.toString())
+    }
+
+    @Test
+    fun getKeyByPath_cachedLeaf() {
+        val keychain = HDKeychain(seed)
+        val chainPath = DerivationPath.parse("m/44'/0'/0'/0")
+
+        val first = keychain.getKeyByPath(chainPath, cacheLeaf = true)
+        Assert.assertEquals(0, keychain.cacheHitCount)
+        Assert.assertEquals(1, keychain.cacheMissCount)
+
+        // The chain node itself is served from the cache, with the public key it already computed
+        first.pubKey
+        Assert.assertSame(first, keychain.getKeyByPath(chainPath, cacheLeaf = true))
+        Assert.assertEquals(1, keychain.cacheHitCount)
+        Assert.assertEquals(1, keychain.cacheMissCount)
+
+        // Its children find it as their parent
+        keychain.getKeyByPath(chainPath.child(0, false))
+        Assert.assertEquals(2, keychain.cacheHitCount)
+        Assert.assertEquals(1, keychain.cacheMissCount)
+    }
+
+    @Test
+    fun keyCache_evictsLeastRecentlyUsed() {
+        val cache = HDKeyCache(2)
+        val keys = (0 until 3).map { hdKeyManager.getKeyByPath("m/$it") }
+
+        cache.put(DerivationPath.parse("m/0"), keys[0])
+        cache.put(DerivationPath.parse("m/1"), keys[1])
+        cache.get(DerivationPath.parse("m/0"))
+        cache.put(DerivationPath.parse("m/2"), keys[2])
+
+        Assert.assertEquals(2, cache.size)
+        Assert.assertNotNull(cache.get(DerivationPath.parse("m/0")))
+        Assert.assertNull(cache.get(DerivationPath.parse("m/1")))
+        Assert.assertNotNull(cache.get(DerivationPath.parse("m/2")))
+    }
+
+    @Test
+    fun keyCache_staysBoundedAndKeepsReadEntries() {
+        val cache = HDKeyCache(16)
+        val key = hdKeyManager.getKeyByPath("m/0")
+        val hot = DerivationPath.parse("m/0/0")
+        cache.put(hot, key)
+
+        for (index in 1 until 1000) {
+            cache.put(DerivationPath.parse("m/0/$index"), key)
+            Assert.assertNotNull(cache.peek(hot))
+            Assert.assertEquals(minOf(index + 1, 16), cache.size)
+        }
+        Assert.assertNull(cache.peek(DerivationPath.parse("m/0/1")))
+        Assert.assertEquals(0, cache.hitCount + cache.missCount)
+    }
+
+    @Test
+    fun deriveNonHardenedChildKeys_parallel() {
+        val parent = hdKeyManager.getKeyByPath("m/44'/0'/0'/0")
+        val pool = ForkJoinPool(4)
+
+        val sequential = hdKeyManager.deriveNonHardenedChildKeys(parent, 5 until 105)
+        val parallel = hdKeyManager.deriveNonHardenedChildKeys(parent, 5 until 105, pool, batchSize = 8)
+        pool.shutdown()
+
+        Assert.assertEquals(sequential.size, parallel.size)
+        sequential.forEachIndexed { i, key ->
+            Assert.assertEquals(i + 5, parallel[i].childNumber)
+            Assert.assertArrayEquals(key.pubKey, parallel[i].pubKey)
+        }
+    }
+
+    @Test
+    fun getKeyByPath_lazyPublicKey() {
+        // BIP32 test vector 1
+        val keychain = HDKeychain("000102030405060708090a0b0c0d0e0f".hexStringToByteArray())
+        val hdKey = keychain.getKeyByPath("m/0'/1")
+
+        Assert.assertEquals("03501e454bf00751f24b1b489aa925215d66af2234e3891c3b21a52bedb3cd711c", hdKey.pubKey.toHexString())
+        Assert.assertEquals(0x5c1bd648, hdKey.parentFingerprint)
+        Assert.assertEquals(0x3442193e, hdKey.parent.parentFingerprint)
+    }
+
 }
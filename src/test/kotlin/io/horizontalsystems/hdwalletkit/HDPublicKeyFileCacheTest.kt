@@ -0,0 +1,306 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.io.RandomAccessFile
+import java.util.concurrent.ForkJoinPool
+
+class HDPublicKeyFileCacheTest {
+
+    private val seed = "6908630f564bd3ca9efb521e72da86727fc78285b15decedb44f40b02474502ed6844958b29465246a618b1b56b4bdffacd1de8b324159e0f7f594c611b0519d".hexStringToByteArray()
+    private lateinit var file: File
+
+    @Before
+    fun setUp() {
+        file = File.createTempFile("hdpk", ".cache")
+    }
+
+    @After
+    fun tearDown() {
+        file.delete()
+    }
+
+    @Test
+    fun reopen_servesKeysWithoutDerivation() {
+        val expected = HDWallet(seed, 0).hdPublicKeys(0, 0 until 30, true)
+
+        val keychain = HDKeychain(seed)
+        HDPublicKeyFileCache.open(file, keychain).use { cache ->
+            val derived = HDWallet(keychain, 0, publicKeyCache = cache).hdPublicKeys(0, 0 until 30, true)
+            assertEquals(30, cache.size)
+            assertArrayEquals(expected[29].publicKey, derived[29].publicKey)
+        }
+
+        val restartedKeychain = HDKeychain(seed)
+        HDPublicKeyFileCache.open(file, restartedKeychain).use { cache ->
+            val wallet = HDWallet(restartedKeychain, 0, publicKeyCache = cache)
+            val cached = wallet.hdPublicKeys(0, 0 until 30, true)
+
+            assertEquals(0L, restartedKeychain.cacheMissCount)
+            cached.forEachIndexed { index, publicKey ->
+                assertEquals(index, publicKey.index)
+                assertArrayEquals(expected[index].publicKey, publicKey.publicKey)
+                assertArrayEquals(expected[index].publicKeyHash, publicKey.publicKeyHash)
+            }
+            assertArrayEquals(expected[5].publicKey, wallet.receiveHDPublicKey(0, 5).publicKey)
+        }
+    }
+
+    @Test
+    fun hdPublicKeys_pool_derivesOnlyMissingKeys() {
+        val expected = HDWallet(seed, 0).hdPublicKeys(0, 0 until 20, true)
+        val keychain = HDKeychain(seed)
+        val pool = ForkJoinPool(2)
+
+        try {
+            HDPublicKeyFileCache.open(file, keychain).use { cache ->
+                val wallet = HDWallet(keychain, 0, publicKeyCache = cache)
+                wallet.hdPublicKeys(0, 5 until 10, true)
+                assertEquals(5, cache.size)
+
+                val keys = wallet.hdPublicKeys(0, 0 until 20, true, pool)
+                assertEquals(20, cache.size)
+                keys.forEachIndexed { index, publicKey ->
+                    assertEquals(index, publicKey.index)
+                    assertArrayEquals(expected[index].publicKey, publicKey.publicKey)
+                    assertArrayEquals(expected[index].publicKeyHash, publicKey.publicKeyHash)
+                }
+            }
+
+            val restartedKeychain = HDKeychain(seed)
+            HDPublicKeyFileCache.open(file, restartedKeychain).use { cache ->
+                val keys = HDWallet(restartedKeychain, 0, publicKeyCache = cache).hdPublicKeys(0, 0 until 20, true, pool)
+
+                assertEquals(0L, restartedKeychain.cacheMissCount)
+                assertArrayEquals(expected[19].publicKey, keys[19].publicKey)
+            }
+        } finally {
+            pool.shutdown()
+        }
+    }
+
+    @Test
+    fun put_readsRecordsBeyondMapping() {
+        val parent = DerivationPath.parse("m/44'/0'/0'/0")
+        val count = 2000
+
+        HDPublicKeyFileCache.open(file, HDKeychain(seed)).use { cache ->
+            // Single appends, so most records are read through the channel before the next remap
+            for (index in 0 until count) {
+                cache.put(parent.child(index, false), ByteArray(33) { (index + it).toByte() }, ByteArray(20) { index.toByte() })
+                assertArrayEquals(ByteArray(33) { (index + it).toByte() }, cache.getPublicKey(parent.child(index, false)))
+            }
+            val publicKeys = ByteArray(count * 33)
+            assertEquals(count, cache.readAll(parent, 0, count, publicKeys, 0, null, 0, BooleanArray(count)))
+            assertArrayEquals(ByteArray(33) { (count - 1 + it).toByte() }, publicKeys.copyOfRange((count - 1) * 33, count * 33))
+        }
+
+        HDPublicKeyFileCache.open(file, HDKeychain(seed)).use { cache ->
+            assertEquals(count, cache.size)
+            assertArrayEquals(ByteArray(20) { 7 }, cache.getPublicKeyHash(parent.child(7, false)))
+        }
+    }
+
+    @Test
+    fun hdPublicKeySequence_servedFromCache() {
+        val expected = HDWallet(seed, 0).hdPublicKeys(0, 0 until 10, false)
+        val keychain = HDKeychain(seed)
+        HDPublicKeyFileCache.open(file, keychain).use { cache ->
+            HDWallet(keychain, 0, publicKeyCache = cache).hdPublicKeySequence(0, false, batchSize = 10).take(10).toList()
+            assertEquals(10, cache.size)
+        }
+
+        val restartedKeychain = HDKeychain(seed)
+        HDPublicKeyFileCache.open(file, restartedKeychain).use { cache ->
+            val keys = HDWallet(restartedKeychain, 0, publicKeyCache = cache).hdPublicKeySequence(0, false, batchSize = 10).take(10).toList()
+
+            assertEquals(0L, restartedKeychain.cacheMissCount)
+            assertEquals((0 until 10).toList(), keys.map { it.index })
+            assertArrayEquals(expected[9].publicKeyHash, keys[9].publicKeyHash)
+        }
+    }
+
+    @Test
+    fun reopen_truncatesTornRecord() {
+        val keychain = HDKeychain(seed)
+        HDPublicKeyFileCache.open(file, keychain).use { cache ->
+            HDWallet(keychain, 0, publicKeyCache = cache).hdPublicKeys(0, 0 until 3, false)
+        }
+        val intactLength = file.length()
+        RandomAccessFile(file, "rw").use { it.setLength(intactLength - 10) }
+
+        HDPublicKeyFileCache.open(file, keychain).use { cache ->
+            val path = DerivationPath.parse("m/44'/0'/0'/1")
+            assertEquals(2, cache.size)
+            assertTrue(cache.contains(path.child(1, false)))
+            assertNull(cache.getPublicKey(path.child(2, false)))
+        }
+        assertTrue(file.length() < intactLength - 10)
+    }
+
+    @Test
+    fun open_rejectsUnknownVersion() {
+        val keychain = HDKeychain(seed)
+        HDPublicKeyFileCache.open(file, keychain).use { cache ->
+            HDWallet(keychain, 0, publicKeyCache = cache).hdPublicKey(0, 0, true)
+        }
+        RandomAccessFile(file, "rw").use {
+            it.seek(5)
+            it.write(HDPublicKeyFileCache.VERSION + 1)
+        }
+        val contents = file.readBytes()
+
+        try {
+            HDPublicKeyFileCache.open(file, keychain)
+            fail("Expected a file of another version to be rejected")
+        } catch (e: IllegalArgumentException) {
+        }
+        assertArrayEquals(contents, file.readBytes())
+    }
+
+    @Test
+    fun open_rejectsOtherFiles() {
+        val keychain = HDKeychain(seed)
+        for (contents in listOf(ByteArray(3) { 1 }, "HDPK".toByteArray(), ByteArray(100) { it.toByte() })) {
+            file.writeBytes(contents)
+
+            try {
+                HDPublicKeyFileCache.open(file, keychain)
+                fail("Expected the file to be rejected")
+            } catch (e: IllegalArgumentException) {
+            }
+            assertArrayEquals(contents, file.readBytes())
+        }
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun open_differentRoot() {
+        HDPublicKeyFileCache.open(file, HDKeychain(seed)).close()
+
+        HDPublicKeyFileCache.open(file, HDKeychain(ByteArray(64) { 1 }))
+    }
+
+    @Test
+    fun reopen_dropsRecordMovedToAnotherPath() {
+        val expected = HDWallet(seed, 0).hdPublicKeys(0, 0 until 3, true)
+        val keychain = HDKeychain(seed)
+        HDPublicKeyFileCache.open(file, keychain).use { cache ->
+            HDWallet(keychain, 0, publicKeyCache = cache).hdPublicKeys(0, 0 until 3, true)
+        }
+        copyKeyOfFirstRecordToSecond()
+
+        HDPublicKeyFileCache.open(file, keychain).use { cache ->
+            assertEquals(1, cache.size)
+            assertNull(cache.getPublicKey(DerivationPath.parse("m/44'/0'/0'/0/1")))
+
+            val keys = HDWallet(keychain, 0, publicKeyCache = cache).hdPublicKeys(0, 0 until 3, true)
+            assertArrayEquals(expected[1].publicKey, keys[1].publicKey)
+            assertEquals(3, cache.size)
+        }
+    }
+
+    @Test
+    fun getPublicKey_rejectsRecordModifiedWhileOpen() {
+        val expected = HDWallet(seed, 0).hdPublicKeys(0, 0 until 3, true)
+        val keychain = HDKeychain(seed)
+        HDPublicKeyFileCache.open(file, keychain).use { cache ->
+            val wallet = HDWallet(keychain, 0, publicKeyCache = cache)
+            wallet.hdPublicKeys(0, 0 until 3, true)
+            copyKeyOfFirstRecordToSecond()
+
+            assertNull(cache.getPublicKeyHash(DerivationPath.parse("m/44'/0'/0'/0/1")))
+            assertArrayEquals(expected[1].publicKey, wallet.hdPublicKey(0, 1, true).publicKey)
+            assertArrayEquals(expected[1].publicKeyHash, cache.getPublicKeyHash(DerivationPath.parse("m/44'/0'/0'/0/1")))
+        }
+    }
+
+    /// Overwrites the public key, hash and MAC of the second m/44'/0'/0'/0 record with those of the first
+    private fun copyKeyOfFirstRecordToSecond() {
+        val headerSize = 32
+        val recordSize = 1 + 5 * 4 + 33 + 20 + 16
+        val keyOffset = 1 + 5 * 4
+        RandomAccessFile(file, "rw").use {
+            val entry = ByteArray(recordSize - keyOffset)
+            it.seek((headerSize + keyOffset).toLong())
+            it.readFully(entry)
+            it.seek((headerSize + recordSize + keyOffset).toLong())
+            it.write(entry)
+        }
+    }
+
+    @Test
+    fun readAll_missingKey() {
+        HDPublicKeyFileCache.open(file, HDKeychain(seed)).use { cache ->
+            val parent = DerivationPath.parse("m/44'/0'/0'/0")
+            cache.put(parent.child(1, false), ByteArray(33) { 2 }, ByteArray(20) { 1 })
+            val publicKeys = ByteArray(99)
+            val publicKeyHashes = ByteArray(60)
+            val found = BooleanArray(3)
+
+            // The cached key is copied even though its neighbours are missing
+            assertEquals(1, cache.readAll(parent, 0, 3, publicKeys, 0, publicKeyHashes, 0, found))
+            assertArrayEquals(booleanArrayOf(false, true, false), found)
+            assertArrayEquals(ByteArray(33) { 2 }, publicKeys.copyOfRange(33, 66))
+            assertArrayEquals(ByteArray(20) { 1 }, publicKeyHashes.copyOfRange(20, 40))
+            assertArrayEquals(ByteArray(33), publicKeys.copyOfRange(0, 33))
+        }
+    }
+
+    @Test
+    fun hdPublicKeys_derivesOnlyMissingKeys() {
+        val expected = HDWallet(seed, 0).hdPublicKeys(0, 0 until 10, true)
+        val keychain = HDKeychain(seed)
+
+        HDPublicKeyFileCache.open(file, keychain).use { cache ->
+            // A marker record stands in for index 3, so serving it proves that index was not derived again
+            val marker = ByteArray(33) { 9 }
+            cache.put(DerivationPath.parse("m/44'/0'/0'/0/3"), marker, ByteArray(20) { 9 })
+            val wallet = HDWallet(keychain, 0, publicKeyCache = cache)
+
+            val keys = wallet.hdPublicKeys(0, 0 until 10, true)
+
+            assertEquals(10, cache.size)
+            assertArrayEquals(marker, keys[3].publicKey)
+            for (index in (0 until 10) - 3) {
+                assertArrayEquals(expected[index].publicKey, keys[index].publicKey)
+                assertArrayEquals(expected[index].publicKeyHash, keys[index].publicKeyHash)
+            }
+            assertArrayEquals(marker, wallet.hdPublicKeys(0, 0 until 10, true, ForkJoinPool.commonPool())[3].publicKey)
+        }
+    }
+
+    @Test
+    fun close_everyLookupMisses() {
+        val parent = DerivationPath.parse("m/44'/0'/0'/0")
+        val cache = HDPublicKeyFileCache.open(file, HDKeychain(seed))
+        // The records are appended after the file was mapped, so they are read through the channel
+        cache.put(parent.child(0, false), ByteArray(33) { 2 }, ByteArray(20) { 1 })
+        cache.put(parent.child(1, false), ByteArray(33) { 3 }, ByteArray(20) { 4 })
+        cache.close()
+        cache.close()
+
+        assertFalse(cache.contains(parent.child(0, false)))
+        assertNull(cache.getPublicKey(parent.child(0, false)))
+        assertNull(cache.getPublicKeyHash(parent.child(1, false)))
+        assertEquals(0, cache.readAll(parent, 0, 2, ByteArray(66), 0, null, 0, BooleanArray(2)))
+        try {
+            cache.put(parent.child(2, false), ByteArray(33), ByteArray(20))
+            fail("Expected put to fail on a closed cache")
+        } catch (e: IllegalStateException) {
+        }
+
+        HDPublicKeyFileCache.open(file, HDKeychain(seed)).use { reopened ->
+            assertEquals(2, reopened.size)
+            assertArrayEquals(ByteArray(33) { 3 }, reopened.getPublicKey(parent.child(1, false)))
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+class HDWalletRestorerTest {
+
+    private val seed = "6908630f564bd3ca9efb521e72da86727fc78285b15decedb44f40b02474502ed6844958b29465246a618b1b56b4bdffacd1de8b324159e0f7f594c611b0519d".hexStringToByteArray()
+
+    @Test
+    fun restore_allPurposes() {
+        val bip44 = HDWallet(seed, 0, purpose = HDWallet.Purpose.BIP44)
+        val bip84 = HDWallet(seed, 0, purpose = HDWallet.Purpose.BIP84)
+        val used = listOf(
+                bip44.hdPublicKey(0, 1, true),
+                bip44.hdPublicKey(1, 2, true),
+                bip44.hdPublicKey(1, 0, false),
+                bip44.hdPublicKey(2, 0, false),
+                bip44.hdPublicKey(3, 0, true),
+                bip84.hdPublicKey(0, 3, true)
+        )
+        val executor = Executors.newFixedThreadPool(2)
+
+        val result = HDWalletRestorer(seed, 0, InMemoryKeyUsageLookup(used), executor, gapLimit = 5).restore()
+        executor.shutdown()
+
+        // Account 2 of BIP44 only used its internal chain, so discovery stops there and account 3 is not found
+        assertEquals(listOf(0, 1), result.getValue(HDWallet.Purpose.BIP44).map { it.account })
+        assertEquals(listOf(1), result.getValue(HDWallet.Purpose.BIP44)[0].external.usedKeys.map { it.index })
+        assertEquals(listOf(0), result.getValue(HDWallet.Purpose.BIP44)[1].internal.usedKeys.map { it.index })
+        assertEquals(listOf<Int>(), result.getValue(HDWallet.Purpose.BIP49).map { it.account })
+        assertEquals(listOf(0), result.getValue(HDWallet.Purpose.BIP84).map { it.account })
+    }
+
+    @Test
+    fun restore_prefetchReachesParallelism() {
+        val bip44 = HDWallet(seed, 0, purpose = HDWallet.Purpose.BIP44)
+        val used = listOf(
+                bip44.hdPublicKey(0, 4, true),
+                bip44.hdPublicKey(0, 9, true),
+                bip44.hdPublicKey(0, 14, true),
+                bip44.hdPublicKey(1, 3, true),
+                bip44.hdPublicKey(1, 8, true),
+                bip44.hdPublicKey(2, 2, true)
+        )
+        val usedLookup = InMemoryKeyUsageLookup(used)
+        // A slow lookup keeps both chain scans running while their windows are derived ahead
+        val lookup = object : HDAccountDiscovery.KeyUsageLookup {
+            override fun isUsed(publicKey: HDPublicKey): Boolean {
+                Thread.sleep(2)
+                return usedLookup.isUsed(publicKey)
+            }
+        }
+        val pool = Executors.newFixedThreadPool(4)
+        val runningTasks = AtomicInteger()
+        val maxRunningTasks = AtomicInteger()
+        val executor = Executor { task ->
+            pool.execute {
+                maxRunningTasks.accumulateAndGet(runningTasks.incrementAndGet()) { a, b -> maxOf(a, b) }
+                try {
+                    task.run()
+                } finally {
+                    runningTasks.decrementAndGet()
+                }
+            }
+        }
+
+        val result = HDWalletRestorer(seed, 0, lookup, executor, gapLimit = 5, purposes = listOf(HDWallet.Purpose.BIP44), parallelism = 4).restore()
+        pool.shutdown()
+
+        // One purpose only has two chain scans at a time, so the other two threads must be prefetching
+        assertEquals(4, maxRunningTasks.get())
+        assertEquals(listOf(0, 1, 2), result.getValue(HDWallet.Purpose.BIP44).map { it.account })
+        assertEquals(listOf(4, 9, 14), result.getValue(HDWallet.Purpose.BIP44)[0].external.usedKeys.map { it.index })
+        assertEquals(listOf(3, 8), result.getValue(HDWallet.Purpose.BIP44)[1].external.usedKeys.map { it.index })
+    }
+
+    @Test
+    fun restore_interruptCancelsScans() {
+        val started = CountDownLatch(1)
+        // Blocks every scan until it is cancelled
+        val lookup = object : HDAccountDiscovery.KeyUsageLookup {
+            override fun isUsed(publicKey: HDPublicKey): Boolean {
+                started.countDown()
+                Thread.sleep(60000)
+                return false
+            }
+        }
+        val executor = Executors.newFixedThreadPool(2)
+        val failure = AtomicReference<Throwable>()
+        val interrupted = AtomicBoolean()
+        val restoring = Thread {
+            try {
+                HDWalletRestorer(seed, 0, lookup, executor, gapLimit = 5).restore()
+            } catch (e: Throwable) {
+                failure.set(e)
+                interrupted.set(Thread.currentThread().isInterrupted)
+            }
+        }
+
+        restoring.start()
+        assertTrue(started.await(10, TimeUnit.SECONDS))
+        restoring.interrupt()
+        restoring.join(10000)
+
+        assertTrue(failure.get() is InterruptedException)
+        assertFalse(interrupted.get())
+        executor.shutdown()
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS))
+    }
+
+}
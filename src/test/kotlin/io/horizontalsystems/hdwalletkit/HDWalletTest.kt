@@ -63,4 +63,50 @@ class HDWalletTest {
         }
     }
 
+    @Test
+    fun hdPublicKeySequence() {
+        val batchPublicKeys = hdWalletMainNet.hdPublicKeys(0, 0 until 20, false)
+
+        val sequencePublicKeys = hdWalletMainNet.hdPublicKeySequence(0, false, batchSize = 7).take(20).toList()
+
+        assertEquals(batchPublicKeys.size, sequencePublicKeys.size)
+        batchPublicKeys.forEachIndexed { index, pubKey ->
+            assertEquals(index, sequencePublicKeys[index].index)
+            assertArrayEquals(pubKey.publicKey, sequencePublicKeys[index].publicKey)
+        }
+    }
+
+    @Test
+    fun hdPublicKeySequence_range() {
+        val indices = hdWalletMainNet.hdPublicKeySequence(0, true, 5..12, batchSize = 3).map { it.index }.toList()
+
+        assertEquals((5..12).toList(), indices)
+    }
+
+    @Test
+    fun hdPublicKeyBatch() {
+        val publicKeys = hdWalletMainNet.hdPublicKeys(0, 3..300, true)
+
+        val batch = hdWalletMainNet.hdPublicKeyBatch(0, 3..300, true)
+
+        assertEquals(publicKeys.size, batch.count)
+        publicKeys.forEachIndexed { position, pubKey ->
+            assertEquals(pubKey.index, batch.index(position))
+            assertArrayEquals(pubKey.publicKey, batch.publicKey(position))
+            assertArrayEquals(pubKey.publicKeyHash, batch.publicKeyHash(position))
+        }
+    }
+
+    @Test
+    fun writePublicKeys_offset() {
+        val publicKeys = hdWalletMainNet.hdPublicKeys(0, 0 until 4, false)
+        val keyBuffer = ByteArray(5 + 4 * 33)
+
+        hdWalletMainNet.writePublicKeys(0, 0 until 4, false, keyBuffer, 5, null, 0)
+
+        publicKeys.forEachIndexed { index, pubKey ->
+            assertArrayEquals(pubKey.publicKey, keyBuffer.copyOfRange(5 + index * 33, 5 + (index + 1) * 33))
+        }
+    }
+
 }
@@ -0,0 +1,59 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.bouncycastle.crypto.ExtendedDigest
+import org.bouncycastle.crypto.digests.SHA256Digest
+import org.bouncycastle.crypto.digests.SHA512Digest
+import org.bouncycastle.crypto.macs.HMac
+import org.bouncycastle.crypto.params.KeyParameter
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class HMacKeyTest {
+
+    private val message = "jealous digital west actor".toByteArray()
+
+    @Test
+    fun initStates_matchesBouncyCastle() {
+        // Keys longer than a block are hashed first
+        for (keyLength in listOf(0, 32, 64, 65, 128, 129)) {
+            val key = ByteArray(keyLength) { it.toByte() }
+            assertArrayEquals(expectedMac(SHA256Digest(), key), mac(SHA256Digest(), SHA256Digest(), key))
+            assertArrayEquals(expectedMac(SHA512Digest(), key), mac(SHA512Digest(), SHA512Digest(), key))
+        }
+    }
+
+    @Test
+    fun initStates_clearsScratch() {
+        val blocks = ByteArray(128) { 1 }
+
+        HMacKey.initStates(ByteArray(32) { 7 }, SHA256Digest(), SHA256Digest(), blocks)
+
+        assertTrue(blocks.all { it == 0.toByte() })
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun padBlocks_scratchTooSmall() {
+        HMacKey.padBlocks(ByteArray(32), SHA512Digest(), ByteArray(128))
+    }
+
+    private fun mac(inner: ExtendedDigest, outer: ExtendedDigest, key: ByteArray): ByteArray {
+        HMacKey.initStates(key, inner, outer, ByteArray(2 * inner.byteLength))
+        val out = ByteArray(inner.digestSize)
+        inner.update(message, 0, message.size)
+        inner.doFinal(out, 0)
+        outer.update(out, 0, out.size)
+        outer.doFinal(out, 0)
+        return out
+    }
+
+    private fun expectedMac(digest: ExtendedDigest, key: ByteArray): ByteArray {
+        val hmac = HMac(digest)
+        hmac.init(KeyParameter(key))
+        hmac.update(message, 0, message.size)
+        val out = ByteArray(hmac.macSize)
+        hmac.doFinal(out, 0)
+        return out
+    }
+
+}
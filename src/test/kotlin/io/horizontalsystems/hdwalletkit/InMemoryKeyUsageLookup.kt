@@ -0,0 +1,11 @@
+package io.horizontalsystems.hdwalletkit
+
+class InMemoryKeyUsageLookup(publicKeys: List<HDPublicKey>) : HDAccountDiscovery.KeyUsageLookup {
+
+    private val used = publicKeys.map { it.publicKey.toHexString() }.toSet()
+
+    override fun isUsed(publicKey: HDPublicKey): Boolean {
+        return used.contains(publicKey.publicKey.toHexString())
+    }
+
+}
@@ -0,0 +1,49 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Test
+
+class MnemonicCodecTest {
+
+    private val mnemonic = Mnemonic()
+
+    @Test
+    fun encode_allOnes() {
+        // BIP 39 test vector "zoo zoo zoo zoo zoo zoo zoo zoo zoo zoo zoo wrong"
+        val indices = MnemonicCodec.encode(ByteArray(16) { 0xff.toByte() })
+
+        assertArrayEquals(IntArray(11) { 2047 } + 2037, indices)
+    }
+
+    @Test
+    fun roundTrip_allStrengths() {
+        for (strength in Mnemonic.Strength.values()) {
+            for (fill in listOf(0x00, 0x7f, 0x80, 0xff)) {
+                val entropy = ByteArray(strength.value / 8) { (fill + it * 31).toByte() }
+                val indices = MnemonicCodec.encode(entropy)
+
+                assertArrayEquals(entropy, MnemonicCodec.decode(indices))
+                assertArrayEquals(entropy, mnemonic.toEntropy(mnemonic.toMnemonic(entropy)))
+            }
+        }
+    }
+
+    @Test(expected = Mnemonic.ChecksumException::class)
+    fun decode_invalidChecksum() {
+        // 12 words end with 4 checksum bits
+        val indices = MnemonicCodec.encode(ByteArray(16) { it.toByte() })
+        indices[indices.size - 1] = indices[indices.size - 1] xor 1
+
+        MnemonicCodec.decode(indices)
+    }
+
+    @Test(expected = Mnemonic.ChecksumException::class)
+    fun decode_invalidWholeChecksumByte() {
+        // 24 words end with a whole checksum byte, flip its top bit
+        val indices = MnemonicCodec.encode(ByteArray(32) { it.toByte() })
+        indices[indices.size - 1] = indices[indices.size - 1] xor 0x80
+
+        MnemonicCodec.decode(indices)
+    }
+
+}
@@ -12,6 +12,7 @@ import org.powermock.core.classloader.annotations.PowerMockIgnore
 import org.powermock.core.classloader.annotations.PrepareForTest
 import org.powermock.modules.junit4.PowerMockRunner
 import java.security.SecureRandom
+import java.util.concurrent.Executors
 
 @RunWith(PowerMockRunner::class)
 @PrepareForTest(SecureRandom::class, Mnemonic::class)
@@ -96,6 +97,74 @@ class MnemonicTest {
         mnemonic.validate(mnemonicKeys)
     }
 
+    @Test
+    fun toSeed_NonAsciiPassphrase() {
+
+        val mnemonicKeys = listOf("jealous", "digital", "west", "actor", "thunder", "matter", "marble", "marine", "olympic", "range", "dust", "banner")
+        val passphrase = "p\u00E4ssw\u00F6rd"
+
+        // The passphrase is used as given, as in earlier versions
+        val legacySeed = hexStringToByteArray("17b499db036a11f14fce25d16e082335a37b6e3e8311e693cbfaab36540b755e88a421302ede00b9c505eaced66d7aa33d8bcf879b1030eefa7d13b5767c41bf")
+        // The passphrase is normalized to NFKD first, as BIP39 specifies
+        val normalizedSeed = hexStringToByteArray("5e8b0f2ad5a80719efa868f95d3b25dcf070be296b5d11d0707f46bd9bfcf573ca15f3b68ae97faa32a9d107b6dba981feb3a8a9453c88ef4258c9cc18e7e6d3")
+
+        Assert.assertArrayEquals(legacySeed, mnemonic.toSeed(mnemonicKeys, passphrase))
+        Assert.assertArrayEquals(normalizedSeed, mnemonic.toNormalizedSeed(mnemonicKeys, passphrase))
+        Assert.assertArrayEquals(normalizedSeed, mnemonic.toNormalizedSeed(mnemonicKeys, "pa\u0308sswo\u0308rd"))
+        Assert.assertArrayEquals(mnemonic.toSeed(mnemonicKeys, "TREZOR"), mnemonic.toNormalizedSeed(mnemonicKeys, "TREZOR"))
+    }
+
+    @Test
+    fun toSeed_CompatibilityFormWord() {
+
+        val mnemonicKeys = listOf("jealous", "digital", "west", "actor", "thunder", "matter", "marble", "marine", "olympic", "range", "dust", "banner")
+        // Fullwidth "jealous", whose NFKD form is the word itself
+        val fullwidthKeys = listOf("\uFF4A\uFF45\uFF41\uFF4C\uFF4F\uFF55\uFF53") + mnemonicKeys.drop(1)
+
+        try {
+            mnemonic.validate(fullwidthKeys)
+            Assert.fail("Expected validate to reject the fullwidth word")
+        } catch (e: Mnemonic.InvalidMnemonicKeyException) {
+        }
+        try {
+            mnemonic.toSeed(fullwidthKeys)
+            Assert.fail("Expected toSeed to reject the fullwidth word")
+        } catch (e: Mnemonic.InvalidMnemonicKeyException) {
+        }
+        Assert.assertArrayEquals(mnemonic.toSeed(mnemonicKeys), mnemonic.toNormalizedSeed(fullwidthKeys))
+    }
+
+    @Test
+    fun toSeeds_Success() {
+
+        val mnemonicKeys = listOf("jealous", "digital", "west", "actor", "thunder", "matter", "marble", "marine", "olympic", "range", "dust", "banner")
+        val otherKeys = mnemonic.toMnemonic(ByteArray(32) { it.toByte() })
+        val executor = Executors.newFixedThreadPool(2)
+
+        try {
+            val seeds = mnemonic.toSeeds(listOf(mnemonicKeys, otherKeys, mnemonicKeys), "TREZOR", executor)
+
+            Assert.assertEquals(3, seeds.size)
+            Assert.assertArrayEquals(mnemonic.toSeed(mnemonicKeys, "TREZOR"), seeds[0])
+            Assert.assertArrayEquals(mnemonic.toSeed(otherKeys, "TREZOR"), seeds[1])
+            Assert.assertArrayEquals(seeds[0], seeds[2])
+
+            val normalizedSeeds = mnemonic.toSeeds(listOf(mnemonicKeys), "p\u00E4ssw\u00F6rd", executor, normalized = true)
+            Assert.assertArrayEquals(mnemonic.toNormalizedSeed(mnemonicKeys, "p\u00E4ssw\u00F6rd"), normalizedSeeds[0])
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    @Test(expected = Mnemonic.InvalidMnemonicKeyException::class)
+    fun toSeeds_InvalidMnemonicKey() {
+
+        val mnemonicKeys = listOf("jealous", "digital", "west", "actor", "thunder", "matter", "marble", "marine", "olympic", "range", "dust", "banner")
+        val invalidKeys = listOf("jealous", "digitalll", "west", "actor", "thunder", "matter", "marble", "marine", "olympic", "range", "dust", "banner")
+
+        mnemonic.toSeeds(listOf(mnemonicKeys, invalidKeys))
+    }
+
     @Test
     fun generate() {
 
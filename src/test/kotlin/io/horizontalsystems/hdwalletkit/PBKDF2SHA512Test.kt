@@ -0,0 +1,57 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.bouncycastle.crypto.digests.SHA512Digest
+import org.bouncycastle.crypto.generators.PKCS5S2ParametersGenerator
+import org.bouncycastle.crypto.params.KeyParameter
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class PBKDF2SHA512Test {
+
+    @Test
+    fun derive_testVectors() {
+        assertEquals("867f70cf1ade02cff3752599a3a53dc4af34c7a669815ae5d513554e1c8cf252c02d470a285a0501bad999bfe943c08f050235d7d68b1da55e63f73b60a57fce",
+                PBKDF2SHA512.derive("password", "salt", 1, 64).toHexString())
+        assertEquals("e1d9c16aa681708a45f5c7c4e215ceb66e011a2e9f0040713f18aefdb866d53cf76cab2868a39b9f7840edce4fef5a82be67335c77a6068e04112754f27ccf4e",
+                PBKDF2SHA512.derive("password", "salt", 2, 64).toHexString())
+        assertEquals("d197b1b33db0143e018b12f3d1d1479e6cdebdcc97c5c0f87f6902e072f457b5143f30602641b3d55cd335988cb36b84376060ecd532e039b742a239434af2d5",
+                PBKDF2SHA512.derive("password", "salt", 4096, 64).toHexString())
+    }
+
+    @Test
+    fun derive_matchesBouncyCastle() {
+        // Long passwords are hashed before use as the HMAC key; key lengths that are not a multiple of 64 truncate the last block
+        val passwords = listOf("", "jealous digital west actor", "x".repeat(128), "y".repeat(129), "abandon ".repeat(24).trim())
+        for (password in passwords) {
+            for (keyLength in listOf(1, 20, 64, 65, 150)) {
+                val generator = PKCS5S2ParametersGenerator(SHA512Digest())
+                generator.init(password.toByteArray(), "mnemonicTREZOR".toByteArray(), 3)
+                val expected = (generator.generateDerivedParameters(keyLength * 8) as KeyParameter).key
+
+                assertArrayEquals(expected, PBKDF2SHA512.derive(password, "mnemonicTREZOR", 3, keyLength))
+            }
+        }
+    }
+
+    @Test
+    fun derive_saltLengthsAroundBlockBoundaries() {
+        // Salt and block index fill the first inner block partly, up to the length field, exactly, and past it
+        for (saltLength in listOf(0, 107, 108, 109, 123, 124, 125, 250, 252)) {
+            val salt = "s".repeat(saltLength)
+            val generator = PKCS5S2ParametersGenerator(SHA512Digest())
+            generator.init("password".toByteArray(), salt.toByteArray(), 2)
+            val expected = (generator.generateDerivedParameters(80 * 8) as KeyParameter).key
+
+            assertArrayEquals(expected, PBKDF2SHA512.derive("password", salt, 2, 80))
+        }
+    }
+
+    @Test
+    fun derive_bip39Seed() {
+        val seed = PBKDF2SHA512.derive("jealous digital west actor thunder matter marble marine olympic range dust banner", "mnemonic", 2048, 64)
+
+        assertEquals("6908630f564bd3ca9efb521e72da86727fc78285b15decedb44f40b02474502ed6844958b29465246a618b1b56b4bdffacd1de8b324159e0f7f594c611b0519d", seed.toHexString())
+    }
+
+}
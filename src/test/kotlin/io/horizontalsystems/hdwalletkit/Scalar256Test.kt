@@ -0,0 +1,53 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.junit.Assert
+import org.junit.Test
+import java.math.BigInteger
+
+class Scalar256Test {
+
+    private val n = ECKey.ecParams.n
+    private val values = listOf(
+            BigInteger.ZERO,
+            BigInteger.ONE,
+            BigInteger("ffffffffffffffff", 16),
+            BigInteger("1ffffffffffffffffffffffffffffffff", 16),
+            n.shiftRight(1),
+            n.subtract(BigInteger.ONE),
+            n.subtract(BigInteger("ffffffffffffffff", 16)),
+            BigInteger("4ee8efccaa04495d5d3ab0f847952fcff43ffc0459bd87981b6be485b92f8d64", 16)
+    )
+
+    @Test
+    fun bytes_roundTrip() {
+        values.forEach { value ->
+            val bytes = Utils.bigIntegerToBytes(value, 32)
+            val scalar = Scalar256.fromBytes(bytes, 0)
+
+            Assert.assertEquals(value, scalar.toBigInteger())
+            Assert.assertArrayEquals(bytes, scalar.toBytes())
+            Assert.assertEquals(value.signum() == 0, scalar.isZero)
+        }
+    }
+
+    @Test
+    fun compareTo_matchesBigInteger() {
+        values.forEach { a ->
+            values.forEach { b ->
+                Assert.assertEquals(a.compareTo(b), Integer.signum(Scalar256.fromBigInteger(a).compareTo(Scalar256.fromBigInteger(b))))
+            }
+        }
+        Assert.assertTrue(Scalar256.fromBigInteger(BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE)) > Scalar256.N)
+    }
+
+    @Test
+    fun addModN_matchesBigInteger() {
+        values.forEach { a ->
+            values.forEach { b ->
+                val expected = a.add(b).mod(n)
+                Assert.assertEquals(expected, Scalar256.fromBigInteger(a).addModN(Scalar256.fromBigInteger(b)).toBigInteger())
+            }
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class WordTableTest {
+
+    private val table = WordTable.english
+
+    @Test
+    fun english_isShared() {
+        assertSame(table, WordTable.english)
+        assertSame(table.words, WordList.getWords())
+        assertEquals(WordTable.SIZE, table.size)
+    }
+
+    @Test
+    fun indexOf_everyWord() {
+        for (index in 0 until table.size) {
+            assertEquals(index, table.indexOf(table.word(index)))
+        }
+        assertEquals(0, table.indexOf("abandon"))
+        assertEquals(2047, table.indexOf("zoo"))
+    }
+
+    @Test
+    fun indexOf_unknownWord() {
+        assertEquals(-1, table.indexOf("digitalll"))
+        assertEquals(-1, table.indexOf(""))
+        assertEquals(-1, table.indexOf("Abandon"))
+        assertFalse(table.contains("zoos"))
+        assertTrue(table.contains("zone"))
+    }
+
+    @Test
+    fun indexOf_exactMatchOnly() {
+        // Fullwidth letters decompose to "abandon" under NFKD, but are not the word itself
+        assertEquals(-1, table.indexOf("\uFF41\uFF42\uFF41\uFF4E\uFF44\uFF4F\uFF4E"))
+    }
+
+    @Test
+    fun english_decodesResource() {
+        assertEquals("abandon", table.word(0))
+        assertEquals("zoo", table.word(2047))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun init_duplicateWord() {
+        WordTable(List(WordTable.SIZE) { if (it == 5) "abandon" else table.word(it) })
+    }
+
+}
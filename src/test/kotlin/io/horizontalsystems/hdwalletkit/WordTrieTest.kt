@@ -0,0 +1,82 @@
+package io.horizontalsystems.hdwalletkit
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class WordTrieTest {
+
+    private val table = WordTable.english
+    private val trie = WordTrie.english
+
+    @Test
+    fun english_isShared() {
+        assertSame(trie, WordTrie.english)
+    }
+
+    @Test
+    fun resolve_fourLetterPrefixOfEveryWord() {
+        for (index in 0 until table.size) {
+            assertEquals(index, trie.resolve(table.word(index).take(4)))
+        }
+    }
+
+    @Test
+    fun resolve() {
+        assertEquals(table.indexOf("abandon"), trie.resolve("aban"))
+        assertEquals(table.indexOf("zoo"), trie.resolve("zoo"))
+        // "act" is a word and a prefix of "action", "actor", ...
+        assertEquals(table.indexOf("act"), trie.resolve("act"))
+        assertEquals(-1, trie.resolve("ab"))
+        assertEquals(-1, trie.resolve("xyz"))
+        assertEquals(-1, trie.resolve(""))
+    }
+
+    @Test
+    fun wordsWithPrefix() {
+        assertEquals(listOf("act", "action", "actor", "actress", "actual"), trie.wordsWithPrefix("act"))
+        assertEquals(listOf("act", "action"), trie.wordsWithPrefix("act", 2))
+        assertEquals(listOf<String>(), trie.wordsWithPrefix("xyz"))
+        assertEquals(table.words, trie.wordsWithPrefix(""))
+        assertEquals(5, trie.countWithPrefix("act"))
+        assertEquals(0, trie.countWithPrefix("xyz"))
+    }
+
+    @Test
+    fun suggest() {
+        assertEquals(listOf("digital"), trie.suggest("digital", 1))
+        assertEquals("digital", trie.suggest("digitalll", 3).first())
+        assertEquals("abandon", trie.suggest("abandom", 3).first())
+        assertEquals(listOf("actress"), trie.suggest("actres", 2, 1))
+        assertEquals(listOf<String>(), trie.suggest("qqqqqqq", 5, 2))
+    }
+
+    @Test
+    fun suggest_ordersByDistanceThenIndex() {
+        val suggestions = trie.suggest("bal", 10, 2)
+        val distances = suggestions.map { distance("bal", it) }
+
+        assertEquals(10, suggestions.size)
+        assertEquals(distances.sorted(), distances)
+        for (i in 1 until suggestions.size) {
+            if (distances[i] == distances[i - 1]) {
+                assertTrue(table.indexOf(suggestions[i - 1]) < table.indexOf(suggestions[i]))
+            }
+        }
+    }
+
+    private fun distance(a: String, b: String): Int {
+        var previous = IntArray(b.length + 1) { it }
+        for (i in 1..a.length) {
+            val row = IntArray(b.length + 1)
+            row[0] = i
+            for (j in 1..b.length) {
+                row[j] = minOf(previous[j - 1] + if (a[i - 1] == b[j - 1]) 0 else 1, previous[j] + 1, row[j - 1] + 1)
+            }
+            previous = row
+        }
+        return previous[b.length]
+    }
+
+}